@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.util.Assert;
+
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * An additive-increase/multiplicative-decrease limit of the number of concurrent writes.
+ * <p>
+ * The limit grows by one for each write completed within the latency threshold while at least
+ * half of the limit is in use, and is multiplied by the backoff ratio for each write slower than
+ * the threshold or failed with a write timeout or an overloaded coordinator.
+ * Writes over the limit wait (without blocking a thread) for a permit in the FIFO order.
+ * <p>
+ * Thread-safe.
+ */
+final class AimdConcurrencyLimiter {
+
+	static final String LIMIT_METER_NAME = "cassandra.consumer.concurrency.limit";
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final long latencyThreshold;
+
+	private final double backoffRatio;
+
+	private final Deque<Permit> pending = new ArrayDeque<>();
+
+	private double limit;
+
+	private int inFlight;
+
+	AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold,
+			double backoffRatio) {
+
+		Assert.isTrue(minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit,
+				"The limits must satisfy: 0 < min <= initial <= max");
+		Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "'backoffRatio' must be in the (0, 1) range");
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThreshold = latencyThreshold.toNanos();
+		this.backoffRatio = backoffRatio;
+	}
+
+	void bindTo(MeterRegistry meterRegistry) {
+		Gauge.builder(LIMIT_METER_NAME, this, AimdConcurrencyLimiter::getLimit)
+				.description("The current adaptive limit of concurrent Cassandra writes")
+				.register(meterRegistry);
+	}
+
+	synchronized int getLimit() {
+		return (int) this.limit;
+	}
+
+	synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	/**
+	 * Defer the subscription to the write until a permit is available
+	 * and adjust the limit by the outcome of the write.
+	 * @param write the write to limit.
+	 * @param <T> the write result type.
+	 * @return the limited write.
+	 */
+	<T> Mono<T> limit(Mono<T> write) {
+		return Mono.usingWhen(acquire(),
+				permit -> write,
+				permit -> Mono.fromRunnable(() -> permit.complete(null)),
+				(permit, error) -> Mono.fromRunnable(() -> permit.complete(error)),
+				permit -> Mono.fromRunnable(permit::cancel));
+	}
+
+	private Mono<Permit> acquire() {
+		return Mono.create(sink -> {
+			Permit permit = new Permit(sink);
+			sink.onCancel(() -> cancelPending(permit));
+			boolean granted = false;
+			synchronized (this) {
+				if (!permit.cancelled) {
+					if (this.inFlight < (int) this.limit) {
+						this.inFlight++;
+						permit.granted = true;
+						granted = true;
+					}
+					else {
+						this.pending.add(permit);
+					}
+				}
+			}
+			if (granted) {
+				permit.grant();
+			}
+		});
+	}
+
+	private void cancelPending(Permit permit) {
+		synchronized (this) {
+			if (this.pending.remove(permit) || !permit.granted) {
+				permit.cancelled = true;
+				return;
+			}
+		}
+		permit.cancel();
+	}
+
+	private void release(long latency, Throwable error, boolean adjust) {
+		List<Permit> granted = new ArrayList<>();
+		synchronized (this) {
+			if (adjust) {
+				if (latency > this.latencyThreshold || isOverload(error)) {
+					this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+				}
+				else if (error == null && this.inFlight * 2 >= this.limit) {
+					this.limit = Math.min(this.maxLimit, this.limit + 1);
+				}
+			}
+			this.inFlight--;
+			while (this.inFlight < (int) this.limit && !this.pending.isEmpty()) {
+				Permit permit = this.pending.poll();
+				permit.granted = true;
+				this.inFlight++;
+				granted.add(permit);
+			}
+		}
+		granted.forEach(Permit::grant);
+	}
+
+	private static boolean isOverload(Throwable error) {
+		Throwable cause = error;
+		while (cause != null) {
+			if (cause instanceof WriteTimeoutException || cause instanceof DriverTimeoutException
+					|| cause instanceof OverloadedException) {
+
+				return true;
+			}
+			cause = cause.getCause() != cause ? cause.getCause() : null;
+		}
+		return false;
+	}
+
+	private final class Permit {
+
+		private final MonoSink<Permit> sink;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private boolean granted;
+
+		private boolean cancelled;
+
+		private long start;
+
+		Permit(MonoSink<Permit> sink) {
+			this.sink = sink;
+		}
+
+		void grant() {
+			this.start = System.nanoTime();
+			this.sink.success(this);
+		}
+
+		void complete(Throwable error) {
+			if (this.released.compareAndSet(false, true)) {
+				release(System.nanoTime() - this.start, error, true);
+			}
+		}
+
+		void cancel() {
+			if (this.released.compareAndSet(false, true)) {
+				release(0, null, false);
+			}
+		}
+
+	}
+
+}
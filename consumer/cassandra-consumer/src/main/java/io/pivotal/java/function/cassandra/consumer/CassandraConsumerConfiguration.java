@@ -16,35 +16,52 @@
 
 package io.pivotal.java.function.cassandra.consumer;
 
-import java.sql.Date;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.cassandra.CassandraProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationPropertiesBinding;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
 import org.springframework.data.cassandra.core.InsertOptions;
 import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
 import org.springframework.data.cassandra.core.UpdateOptions;
 import org.springframework.data.cassandra.core.WriteResult;
 import org.springframework.data.cassandra.core.cql.WriteOptions;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.integration.cassandra.outbound.CassandraMessageHandler;
+import org.springframework.integration.context.IntegrationContextUtils;
+import org.springframework.integration.dsl.ConsumerEndpointSpec;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlowBuilder;
 import org.springframework.integration.dsl.IntegrationFlows;
-import org.springframework.integration.support.json.Jackson2JsonObjectMapper;
 import org.springframework.integration.transformer.AbstractPayloadTransformer;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.util.StdDateFormat;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import io.pivotal.java.function.cassandra.consumer.query.ColumnNameExtractor;
 import io.pivotal.java.function.cassandra.consumer.query.InsertQueryColumnNameExtractor;
 import io.pivotal.java.function.cassandra.consumer.query.UpdateQueryColumnNameExtractor;
@@ -65,21 +82,121 @@ public class CassandraConsumerConfiguration {
 
 	@Bean
 	public IntegrationFlow cassandraConsumerFlow(MessageHandler cassandraSinkMessageHandler,
-			ObjectMapper objectMapper) {
+			ObjectMapper objectMapper, ObjectProvider<CqlSession> cqlSessionProvider,
+			ObjectProvider<AimdConcurrencyLimiter> concurrencyLimiterProvider,
+			ObjectProvider<MeterRegistry> meterRegistryProvider,
+			ObjectProvider<CassandraProperties> cassandraProperties,
+			@Qualifier(IntegrationContextUtils.INTEGRATION_EVALUATION_CONTEXT_BEAN_NAME)
+					EvaluationContext evaluationContext) {
+
+		AimdConcurrencyLimiter concurrencyLimiter = concurrencyLimiterProvider.getIfAvailable();
+		MeterRegistry meterRegistry = meterRegistryProvider.getIfUnique(() -> Metrics.globalRegistry);
+		CassandraProperties sessionProperties = cassandraProperties.getIfAvailable();
+		CassandraWriteMetrics metrics =
+				CassandraWriteMetrics.forQuery(this.cassandraSinkProperties.getIngestQuery(),
+						sessionProperties != null ? sessionProperties.getKeyspaceName() : null, meterRegistry,
+						this.cassandraSinkProperties.getConsistencyLevel());
+		IdempotentWriteRetry retry = null;
+		if (this.cassandraSinkProperties.getWriteRetries() > 0) {
+			retry = new IdempotentWriteRetry(this.cassandraSinkProperties.getWriteRetries(),
+					this.cassandraSinkProperties.getWriteRetryBackoff(),
+					this.cassandraSinkProperties.getWriteRetryMaxBackoff());
+		}
 		IntegrationFlowBuilder integrationFlowBuilder =
 				IntegrationFlows.from(CassandraConsumerFunction.class);
 		if (StringUtils.hasText(this.cassandraSinkProperties.getIngestQuery())) {
+			IdempotentWriteRetry ingestRetry =
+					IdempotentWriteRetry.isIdempotent(this.cassandraSinkProperties.getIngestQuery()) ? retry : null;
 			integrationFlowBuilder.transform(
 					new PayloadToMatrixTransformer(objectMapper, this.cassandraSinkProperties.getIngestQuery(),
 							CassandraMessageHandler.Type.UPDATE == this.cassandraSinkProperties.getQueryType()
 									? new UpdateQueryColumnNameExtractor()
-									: new InsertQueryColumnNameExtractor()));
+									: new InsertQueryColumnNameExtractor(),
+							cqlSessionProvider, metrics));
+
+			if (this.cassandraSinkProperties.getIngestMode() != IngestMode.handler) {
+				Assert.isTrue(this.cassandraSinkProperties.getTtl() <= 0,
+						"The 'ttl' is not supported by the '" + this.cassandraSinkProperties.getIngestMode() +
+								"' ingest mode: use 'USING TTL' in the ingest query instead");
+				CassandraIngestWriter ingestWriter =
+						new CassandraIngestWriter(cqlSessionProvider::getObject,
+								this.cassandraSinkProperties.getIngestQuery(),
+								this.cassandraSinkProperties.getIngestMode(),
+								this.cassandraSinkProperties.getBatchSize(),
+								this.cassandraSinkProperties.getMaxInFlight(),
+								this.cassandraSinkProperties.getShardParallelism(),
+								this.cassandraSinkProperties.getConsistencyLevel());
+				// Each message fans out to many statements: time, limit and retry them instead of the message
+				ingestWriter.setConcurrencyLimiter(concurrencyLimiter);
+				ingestWriter.setRetry(ingestRetry);
+				ingestWriter.setWriteMetrics(metrics);
+				return integrationFlowBuilder
+						.handle(List.class, (rows, headers) -> ingestWriter.write(rows), e -> e.async(true))
+						.get();
+			}
+			return integrationFlowBuilder
+					.handle(cassandraSinkMessageHandler,
+							e -> customizeReply(e, metrics, concurrencyLimiter, ingestRetry))
+					.get();
+		}
+		else if (this.cassandraSinkProperties.getStatementExpression() != null
+				&& this.cassandraSinkProperties.getStatementCacheSize() > 0) {
+
+			PreparedStatementCache preparedStatementCache =
+					new PreparedStatementCache(cqlSessionProvider::getObject,
+							this.cassandraSinkProperties.getStatementCacheSize());
+			preparedStatementCache.bindTo(meterRegistry);
+			StatementExpressionWriter statementWriter =
+					new StatementExpressionWriter(cqlSessionProvider::getObject,
+							this.cassandraSinkProperties.getStatementExpression(), evaluationContext,
+							preparedStatementCache, this.cassandraSinkProperties.isBindStatementValues(),
+							this.cassandraSinkProperties.getConsistencyLevel(), retry);
+			// The writer retries the evaluated statement if idempotent: each attempt is timed and limited there
+			statementWriter.setConcurrencyLimiter(concurrencyLimiter);
+			statementWriter.setWriteMetrics(metrics);
+			return integrationFlowBuilder
+					.handle(Message.class, (message, headers) -> statementWriter.write(message), e -> e.async(true))
+					.get();
 		}
+		// Entity writes are plain INSERT, UPDATE or DELETE; an arbitrary statement may be not idempotent
+		IdempotentWriteRetry handlerRetry =
+				this.cassandraSinkProperties.getStatementExpression() == null
+						&& this.cassandraSinkProperties.getQueryType() != CassandraMessageHandler.Type.STATEMENT
+						? retry
+						: null;
 		return integrationFlowBuilder
-				.handle(cassandraSinkMessageHandler)
+				.handle(cassandraSinkMessageHandler, e -> customizeReply(e, metrics, concurrencyLimiter, handlerRetry))
 				.get();
 	}
 
+	@Bean
+	@ConfigurationPropertiesBinding
+	public static Converter<String, Expression> cassandraSpelConverter() {
+		return new Converter<String, Expression>() { // NOTE Using lambda causes Java Generics issues.
+
+			private final SpelExpressionParser parser = new SpelExpressionParser();
+
+			@Override
+			public Expression convert(String source) {
+				return this.parser.parseExpression(source);
+			}
+
+		};
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "cassandra", name = "adaptive-concurrency", havingValue = "true")
+	AimdConcurrencyLimiter concurrencyLimiter(ObjectProvider<MeterRegistry> meterRegistryProvider) {
+		AimdConcurrencyLimiter concurrencyLimiter =
+				new AimdConcurrencyLimiter(this.cassandraSinkProperties.getInitialConcurrencyLimit(),
+						this.cassandraSinkProperties.getMinConcurrencyLimit(),
+						this.cassandraSinkProperties.getMaxConcurrencyLimit(),
+						this.cassandraSinkProperties.getConcurrencyLatencyThreshold(),
+						this.cassandraSinkProperties.getConcurrencyBackoffRatio());
+		concurrencyLimiter.bindTo(meterRegistryProvider.getIfUnique(() -> Metrics.globalRegistry));
+		return concurrencyLimiter;
+	}
+
 	@Bean
 	public MessageHandler cassandraSinkMessageHandler(ReactiveCassandraOperations cassandraOperations) {
 		CassandraMessageHandler cassandraMessageHandler =
@@ -122,62 +239,71 @@ public class CassandraConsumerConfiguration {
 		return cassandraMessageHandler;
 	}
 
-	private static boolean isUuid(String uuid) {
-		if (uuid.length() == 36) {
-			String[] parts = uuid.split("-");
-			if (parts.length == 5) {
-				return (parts[0].length() == 8) && (parts[1].length() == 4) &&
-						(parts[2].length() == 4) && (parts[3].length() == 4) &&
-						(parts[4].length() == 12);
-			}
-		}
-		return false;
-	}
+	/**
+	 * Time each write attempt, limit its concurrency and retry the limited write, if configured.
+	 */
+	private static void customizeReply(ConsumerEndpointSpec<?, ?> endpoint, CassandraWriteMetrics metrics,
+			AimdConcurrencyLimiter concurrencyLimiter, IdempotentWriteRetry retry) {
 
+		endpoint.customizeMonoReply((message, reply) -> {
+			Mono<?> timed = metrics.timeWrite(reply);
+			Mono<?> limited = concurrencyLimiter != null ? concurrencyLimiter.limit(timed) : timed;
+			return retry != null ? retry.apply(limited) : limited;
+		});
+	}
 
 	private static class PayloadToMatrixTransformer extends AbstractPayloadTransformer<Object, List<List<Object>>> {
 
-		private final Jackson2JsonObjectMapper jsonObjectMapper;
+		private static final Log LOGGER = LogFactory.getLog(PayloadToMatrixTransformer.class);
+
+		private static final long COERCIONS_RETRY_INTERVAL = 10_000;
 
-		private final List<String> columns = new LinkedList<>();
+		private final JsonRowReader jsonRowReader;
 
-		private final ISO8601StdDateFormat dateFormat = new ISO8601StdDateFormat();
+		private final String query;
 
-		PayloadToMatrixTransformer(ObjectMapper objectMapper, String query, ColumnNameExtractor columnNameExtractor) {
-			this.jsonObjectMapper = new Jackson2JsonObjectMapper(objectMapper);
-			this.columns.addAll(columnNameExtractor.extract(query));
-			this.jsonObjectMapper.getObjectMapper()
-					.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+		private final ObjectProvider<CqlSession> cqlSessionProvider;
+
+		private final CassandraWriteMetrics metrics;
+
+		private volatile List<UnaryOperator<Object>> coercions;
+
+		private volatile long nextCoercionsAttempt;
+
+		PayloadToMatrixTransformer(ObjectMapper objectMapper, String query, ColumnNameExtractor columnNameExtractor,
+				ObjectProvider<CqlSession> cqlSessionProvider, CassandraWriteMetrics metrics) {
+
+			this.jsonRowReader = new JsonRowReader(objectMapper, columnNameExtractor.extract(query));
+			this.query = query;
+			this.cqlSessionProvider = cqlSessionProvider;
+			this.metrics = metrics;
 		}
 
 		@Override
-		@SuppressWarnings("unchecked")
 		protected List<List<Object>> transformPayload(Object payload) {
+			long start = System.nanoTime();
+			List<List<Object>> rows = toRows(payload);
+			this.metrics.recordTransform(System.nanoTime() - start, rows.size());
+			return rows;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<List<Object>> toRows(Object payload) {
 			if (payload instanceof List) {
 				return (List<List<Object>>) payload;
 			}
 			else {
 				try {
-					List<Map<String, Object>> model = this.jsonObjectMapper.fromJson(payload, List.class);
-					List<List<Object>> data = new ArrayList<>(model.size());
-					for (Map<String, Object> entity : model) {
-						List<Object> row = new ArrayList<>(this.columns.size());
-						for (String column : this.columns) {
-							Object value = entity.get(column);
-							if (value instanceof String) {
-								String string = (String) value;
-								if (this.dateFormat.looksLikeISO8601(string)) {
-									synchronized (this.dateFormat) {
-										value = new Date(this.dateFormat.parse(string).getTime()).toLocalDate();
-									}
-								}
-								if (isUuid(string)) {
-									value = UUID.fromString(string);
-								}
+					List<Object[]> rows = this.jsonRowReader.read(payload);
+					List<UnaryOperator<Object>> coercions = getCoercions();
+					List<List<Object>> data = new ArrayList<>(rows.size());
+					for (Object[] row : rows) {
+						for (int i = 0; i < row.length; i++) {
+							if (row[i] != null) {
+								row[i] = coercions.get(i).apply(row[i]);
 							}
-							row.add(value);
 						}
-						data.add(row);
+						data.add(Arrays.asList(row));
 					}
 					return data;
 				}
@@ -187,17 +313,42 @@ public class CassandraConsumerConfiguration {
 			}
 		}
 
-	}
-
-	/*
-	 * We need this to provide visibility to the protected method.
-	 */
-	@SuppressWarnings("serial")
-	private static class ISO8601StdDateFormat extends StdDateFormat {
-
-		@Override
-		protected boolean looksLikeISO8601(String dateStr) {
-			return super.looksLikeISO8601(dateStr);
+		/**
+		 * Resolve the coercion for each column once from the bind variable types of the prepared ingest query;
+		 * fall back to the per-value guessing while the query cannot be prepared.
+		 * A failed resolution is not kept: it is attempted again for a message after
+		 * {@value #COERCIONS_RETRY_INTERVAL} milliseconds, so a node being down at startup
+		 * doesn't disable the typed coercion for good.
+		 */
+		private List<UnaryOperator<Object>> getCoercions() {
+			List<UnaryOperator<Object>> coercions = this.coercions;
+			if (coercions != null) {
+				return coercions;
+			}
+			int columnCount = this.jsonRowReader.getColumnCount();
+			long now = System.currentTimeMillis();
+			if (now >= this.nextCoercionsAttempt) {
+				this.nextCoercionsAttempt = now + COERCIONS_RETRY_INTERVAL;
+				try {
+					ColumnDefinitions variables =
+							this.cqlSessionProvider.getObject().prepare(this.query).getVariableDefinitions();
+					if (variables.size() != columnCount) {
+						throw new IllegalStateException("The number of bind variables " + variables.size() +
+								" doesn't match the number of extracted columns " + columnCount);
+					}
+					coercions = new ArrayList<>(columnCount);
+					for (ColumnDefinition variable : variables) {
+						coercions.add(ColumnValueCoercion.forType(variable.getType()));
+					}
+					this.coercions = coercions;
+					return coercions;
+				}
+				catch (Exception ex) {
+					LOGGER.warn("Cannot resolve column types for the ingest query '" + this.query +
+							"'; the values are coerced by their format until it is resolved", ex);
+				}
+			}
+			return Collections.nCopies(columnCount, ColumnValueCoercion.GUESS);
 		}
 
 	}
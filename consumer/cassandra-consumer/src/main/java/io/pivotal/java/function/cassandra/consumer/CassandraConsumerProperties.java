@@ -16,6 +16,8 @@
 
 package io.pivotal.java.function.cassandra.consumer;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.expression.Expression;
 import org.springframework.integration.cassandra.outbound.CassandraMessageHandler;
@@ -49,11 +51,100 @@ public class CassandraConsumerProperties {
 	 */
 	private Expression statementExpression;
 
+	/**
+	 * The maximum number of statements prepared from the query text of the evaluated 'statement-expression'
+	 * kept in an LRU cache. 0 to execute the statements as evaluated via 'CassandraMessageHandler'.
+	 * The query text is the cache key: an expression which inlines values into the query instead of
+	 * bind markers produces a new statement per value and churns this cache and the server one.
+	 */
+	private int statementCacheSize;
+
+	/**
+	 * Whether to bind the values of the evaluated 'statement-expression' into the cached prepared statement.
+	 * If false, only the statements without values are prepared and the others are executed as evaluated.
+	 */
+	private boolean bindStatementValues = true;
+
 	/**
 	 * The consistency level for write operation.
 	 */
 	private ConsistencyLevel consistencyLevel;
 
+	/**
+	 * The mode of executing the ingest query rows: 'handler' - via 'CassandraMessageHandler';
+	 * 'batch' - unlogged batches of the rows with the same partition key;
+	 * 'async' - concurrent single-row writes;
+	 * 'sharded' - 'batch' per replica shard, the shards in parallel.
+	 * The 'batch', 'async' and 'sharded' modes don't support the 'ttl' option:
+	 * use 'USING TTL' in the ingest query instead.
+	 */
+	private IngestMode ingestMode = IngestMode.handler;
+
+	/**
+	 * The maximum number of rows with the same partition key in one unlogged batch in the 'batch' ingest mode.
+	 */
+	private int batchSize = 10;
+
+	/**
+	 * The maximum number of statements executed concurrently in the 'batch' and 'async' ingest modes,
+	 * or per shard in the 'sharded' ingest mode.
+	 */
+	private int maxInFlight = 32;
+
+	/**
+	 * The maximum number of replica shards written in parallel in the 'sharded' ingest mode.
+	 */
+	private int shardParallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Whether to limit the number of concurrent writes by an AIMD (additive-increase/multiplicative-decrease) limit
+	 * adjusted by the write latency and timeouts. In the 'batch', 'async' and 'sharded' ingest modes the limit
+	 * counts the executed statements (rows or single-partition batches), otherwise the messages.
+	 */
+	private boolean adaptiveConcurrency;
+
+	/**
+	 * The initial adaptive limit of concurrent writes.
+	 */
+	private int initialConcurrencyLimit = 20;
+
+	/**
+	 * The minimum adaptive limit of concurrent writes.
+	 */
+	private int minConcurrencyLimit = 1;
+
+	/**
+	 * The maximum adaptive limit of concurrent writes.
+	 */
+	private int maxConcurrencyLimit = 200;
+
+	/**
+	 * The write latency above which the adaptive concurrency limit is decreased.
+	 */
+	private Duration concurrencyLatencyThreshold = Duration.ofMillis(500);
+
+	/**
+	 * The ratio the adaptive concurrency limit is multiplied by on a slow or timed out write.
+	 */
+	private double concurrencyBackoffRatio = 0.9;
+
+	/**
+	 * The maximum number of retries of an idempotent write failed with a timeout, an unavailable
+	 * or an overloaded replica. 0 to not retry. In the 'batch', 'async' and 'sharded' ingest modes
+	 * each executed statement (a row or a single-partition batch) is retried on its own.
+	 */
+	private int writeRetries;
+
+	/**
+	 * The backoff before the first retry of a failed idempotent write, doubled for each next retry.
+	 */
+	private Duration writeRetryBackoff = Duration.ofMillis(100);
+
+	/**
+	 * The maximum backoff between retries of a failed idempotent write.
+	 */
+	private Duration writeRetryMaxBackoff = Duration.ofSeconds(2);
+
 	public int getTtl() {
 		return this.ttl;
 	}
@@ -86,6 +177,22 @@ public class CassandraConsumerProperties {
 		this.statementExpression = statementExpression;
 	}
 
+	public int getStatementCacheSize() {
+		return this.statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public boolean isBindStatementValues() {
+		return this.bindStatementValues;
+	}
+
+	public void setBindStatementValues(boolean bindStatementValues) {
+		this.bindStatementValues = bindStatementValues;
+	}
+
 	public ConsistencyLevel getConsistencyLevel() {
 		return this.consistencyLevel;
 	}
@@ -94,4 +201,108 @@ public class CassandraConsumerProperties {
 		this.consistencyLevel = consistencyLevel;
 	}
 
+	public IngestMode getIngestMode() {
+		return this.ingestMode;
+	}
+
+	public void setIngestMode(IngestMode ingestMode) {
+		this.ingestMode = ingestMode;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int getShardParallelism() {
+		return this.shardParallelism;
+	}
+
+	public void setShardParallelism(int shardParallelism) {
+		this.shardParallelism = shardParallelism;
+	}
+
+	public boolean isAdaptiveConcurrency() {
+		return this.adaptiveConcurrency;
+	}
+
+	public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
+	public int getInitialConcurrencyLimit() {
+		return this.initialConcurrencyLimit;
+	}
+
+	public void setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+		this.initialConcurrencyLimit = initialConcurrencyLimit;
+	}
+
+	public int getMinConcurrencyLimit() {
+		return this.minConcurrencyLimit;
+	}
+
+	public void setMinConcurrencyLimit(int minConcurrencyLimit) {
+		this.minConcurrencyLimit = minConcurrencyLimit;
+	}
+
+	public int getMaxConcurrencyLimit() {
+		return this.maxConcurrencyLimit;
+	}
+
+	public void setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+		this.maxConcurrencyLimit = maxConcurrencyLimit;
+	}
+
+	public Duration getConcurrencyLatencyThreshold() {
+		return this.concurrencyLatencyThreshold;
+	}
+
+	public void setConcurrencyLatencyThreshold(Duration concurrencyLatencyThreshold) {
+		this.concurrencyLatencyThreshold = concurrencyLatencyThreshold;
+	}
+
+	public double getConcurrencyBackoffRatio() {
+		return this.concurrencyBackoffRatio;
+	}
+
+	public void setConcurrencyBackoffRatio(double concurrencyBackoffRatio) {
+		this.concurrencyBackoffRatio = concurrencyBackoffRatio;
+	}
+
+	public int getWriteRetries() {
+		return this.writeRetries;
+	}
+
+	public void setWriteRetries(int writeRetries) {
+		this.writeRetries = writeRetries;
+	}
+
+	public Duration getWriteRetryBackoff() {
+		return this.writeRetryBackoff;
+	}
+
+	public void setWriteRetryBackoff(Duration writeRetryBackoff) {
+		this.writeRetryBackoff = writeRetryBackoff;
+	}
+
+	public Duration getWriteRetryMaxBackoff() {
+		return this.writeRetryMaxBackoff;
+	}
+
+	public void setWriteRetryMaxBackoff(Duration writeRetryMaxBackoff) {
+		this.writeRetryMaxBackoff = writeRetryMaxBackoff;
+	}
+
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.springframework.data.cassandra.core.WriteResult;
+import org.springframework.util.Assert;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.ExecutionInfo;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.TokenMap;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Executes the rows of the ingest query against the statement prepared once per application
+ * instead of the {@code CassandraMessageHandler} ingest, which goes through a single coordinator
+ * for the whole matrix.
+ * <p>
+ * In the {@link IngestMode#batch} mode the bound statements are grouped by their routing (partition) key,
+ * so each unlogged batch hits a single partition and is applied by its replicas in one mutation.
+ * In the {@link IngestMode#async} mode each row is a separate asynchronous write,
+ * which the token-aware load balancing policy routes straight to a replica.
+ * In the {@link IngestMode#sharded} mode the rows are split by the primary replica of their partition
+ * and each shard is written as in the {@link IngestMode#batch} mode, the shards in parallel.
+ * <p>
+ * Thread-safe.
+ */
+class CassandraIngestWriter {
+
+	private static final Duration FOREVER = Duration.ofMillis(Long.MAX_VALUE);
+
+	private final Supplier<CqlSession> cqlSession;
+
+	private final Mono<PreparedStatement> preparedStatement;
+
+	private final IngestMode ingestMode;
+
+	private final int batchSize;
+
+	private final int maxInFlight;
+
+	private final int shardParallelism;
+
+	private final ConsistencyLevel consistencyLevel;
+
+	private final boolean idempotent;
+
+	private AimdConcurrencyLimiter concurrencyLimiter;
+
+	private IdempotentWriteRetry retry;
+
+	private CassandraWriteMetrics metrics;
+
+	CassandraIngestWriter(Supplier<CqlSession> cqlSession, String ingestQuery, IngestMode ingestMode,
+			int batchSize, int maxInFlight, int shardParallelism, ConsistencyLevel consistencyLevel) {
+
+		Assert.isTrue(ingestMode != IngestMode.handler, "The 'handler' ingest mode is not supported by this writer");
+		Assert.isTrue(batchSize > 0, "'batchSize' must be positive");
+		Assert.isTrue(maxInFlight > 0, "'maxInFlight' must be positive");
+		Assert.isTrue(shardParallelism > 0, "'shardParallelism' must be positive");
+		this.cqlSession = cqlSession;
+		this.ingestMode = ingestMode;
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+		this.shardParallelism = shardParallelism;
+		this.consistencyLevel = consistencyLevel;
+		this.idempotent = IdempotentWriteRetry.isIdempotent(ingestQuery);
+		// Prepared once; a failure (e.g. the table is not created yet) is not cached
+		this.preparedStatement =
+				Mono.defer(() -> Mono.fromCompletionStage(cqlSession.get().prepareAsync(ingestQuery)))
+						.cache(prepared -> FOREVER, error -> Duration.ZERO, () -> Duration.ZERO);
+	}
+
+	/**
+	 * Set the limiter to acquire a permit from for every executed statement (a row or a batch),
+	 * so the limit bounds the requests to the coordinators, not the messages.
+	 * @param concurrencyLimiter the limiter.
+	 */
+	void setConcurrencyLimiter(AimdConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * Set the retry for every executed statement (a row or a batch) of an idempotent ingest query,
+	 * so a transient failure re-executes only the failed statement, not the whole message.
+	 * Each attempt acquires its own permit from the concurrency limiter.
+	 * @param retry the retry.
+	 */
+	void setRetry(IdempotentWriteRetry retry) {
+		this.retry = retry;
+	}
+
+	/**
+	 * Set the metrics to time every executed statement (a row or a batch) with, after its permit is acquired,
+	 * so the write latency excludes the wait for a permit.
+	 * @param metrics the metrics.
+	 */
+	void setWriteMetrics(CassandraWriteMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	Mono<WriteResult> write(List<? extends List<?>> rows) {
+		if (rows.isEmpty()) {
+			return Mono.just(new WriteResult(Collections.emptyList(), true, Collections.emptyList()));
+		}
+		return this.preparedStatement
+				.flatMapMany(prepared ->
+						this.ingestMode == IngestMode.sharded
+								? writeShards(prepared, rows)
+								: Flux.fromIterable(statements(prepared, rows)).flatMap(this::execute, this.maxInFlight))
+				.collectList()
+				.map(CassandraIngestWriter::combine);
+	}
+
+	private List<Statement<?>> statements(PreparedStatement preparedStatement, List<? extends List<?>> rows) {
+		List<BoundStatement> boundStatements = new ArrayList<>(rows.size());
+		for (List<?> row : rows) {
+			boundStatements.add(bind(preparedStatement, row));
+		}
+		if (this.ingestMode == IngestMode.async) {
+			List<Statement<?>> statements = new ArrayList<>(boundStatements.size());
+			for (BoundStatement statement : boundStatements) {
+				statements.add(withOptions(statement));
+			}
+			return statements;
+		}
+		else {
+			return batches(boundStatements);
+		}
+	}
+
+	/**
+	 * Split the rows by the primary replica of their partition according to the driver's token map
+	 * and write each shard in unlogged single-partition batches on a parallel worker.
+	 * The rows are in a single shard if the token map or the routing information is not available.
+	 */
+	private Flux<AsyncResultSet> writeShards(PreparedStatement preparedStatement, List<? extends List<?>> rows) {
+		TokenMap tokenMap = this.cqlSession.get().getMetadata().getTokenMap().orElse(null);
+		Map<Node, List<BoundStatement>> shards = new LinkedHashMap<>();
+		for (List<?> row : rows) {
+			BoundStatement statement = bind(preparedStatement, row);
+			shards.computeIfAbsent(primaryReplica(tokenMap, statement), node -> new ArrayList<>()).add(statement);
+		}
+		return Flux.fromIterable(shards.values())
+				.flatMap(shard ->
+								Flux.defer(() -> Flux.fromIterable(batches(shard)))
+										.flatMap(this::execute, this.maxInFlight)
+										.subscribeOn(Schedulers.parallel()),
+						this.shardParallelism);
+	}
+
+	/**
+	 * Group the statements by their routing (partition) key into unlogged batches of up to the batch size.
+	 * The statements without a routing key may belong to different partitions, so they are executed one by one.
+	 */
+	private List<Statement<?>> batches(List<BoundStatement> boundStatements) {
+		Map<ByteBuffer, List<BatchableStatement<?>>> partitions = new LinkedHashMap<>();
+		List<Statement<?>> statements = new ArrayList<>();
+		for (BoundStatement statement : boundStatements) {
+			ByteBuffer routingKey = statement.getRoutingKey();
+			if (routingKey == null) {
+				statements.add(withOptions(statement));
+			}
+			else {
+				partitions.computeIfAbsent(routingKey, key -> new ArrayList<>()).add(statement);
+			}
+		}
+		for (List<BatchableStatement<?>> partition : partitions.values()) {
+			for (int i = 0; i < partition.size(); i += this.batchSize) {
+				List<BatchableStatement<?>> chunk = partition.subList(i, Math.min(i + this.batchSize,
+						partition.size()));
+				statements.add(withOptions(chunk.size() == 1
+						? chunk.get(0)
+						: BatchStatement.newInstance(DefaultBatchType.UNLOGGED, chunk)));
+			}
+		}
+		return statements;
+	}
+
+	private Mono<AsyncResultSet> execute(Statement<?> statement) {
+		Mono<AsyncResultSet> execution =
+				Mono.defer(() -> Mono.fromCompletionStage(this.cqlSession.get().executeAsync(statement)));
+		Mono<AsyncResultSet> timed = this.metrics != null ? this.metrics.timeWrite(execution) : execution;
+		Mono<AsyncResultSet> limited =
+				this.concurrencyLimiter != null ? this.concurrencyLimiter.limit(timed) : timed;
+		return this.retry != null && this.idempotent ? this.retry.apply(limited) : limited;
+	}
+
+	private Statement<?> withOptions(Statement<?> statement) {
+		Statement<?> withIdempotence = statement.setIdempotent(this.idempotent);
+		return this.consistencyLevel != null
+				? withIdempotence.setConsistencyLevel(this.consistencyLevel)
+				: withIdempotence;
+	}
+
+	private static Node primaryReplica(TokenMap tokenMap, BoundStatement statement) {
+		ByteBuffer routingKey = statement.getRoutingKey();
+		CqlIdentifier keyspace = statement.getRoutingKeyspace();
+		if (tokenMap == null || routingKey == null || keyspace == null) {
+			return null;
+		}
+		Set<Node> replicas = tokenMap.getReplicas(keyspace, routingKey);
+		return replicas.isEmpty() ? null : replicas.iterator().next();
+	}
+
+	private static BoundStatement bind(PreparedStatement preparedStatement, List<?> row) {
+		return preparedStatement.bind(row.toArray());
+	}
+
+	static WriteResult combine(List<AsyncResultSet> resultSets) {
+		List<ExecutionInfo> executionInfos = new ArrayList<>(resultSets.size());
+		List<Row> rows = new ArrayList<>();
+		boolean applied = true;
+		for (AsyncResultSet resultSet : resultSets) {
+			executionInfos.add(resultSet.getExecutionInfo());
+			applied &= resultSet.wasApplied();
+			resultSet.currentPage().forEach(rows::add);
+		}
+		return new WriteResult(executionInfos, applied, rows);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * The Micrometer meters of the Cassandra consumer write path, tagged by the target keyspace and table:
+ * the JSON to rows transformation time, the number of rows per message,
+ * the write latency per consistency level and the failed writes per exception type.
+ * A write is an executed statement (a row or a batch) in the 'batch', 'async' and 'sharded' ingest modes,
+ * otherwise a message.
+ * <p>
+ * Thread-safe.
+ */
+final class CassandraWriteMetrics {
+
+	static final String TRANSFORM_METER_NAME = "cassandra.consumer.transform";
+
+	static final String ROWS_METER_NAME = "cassandra.consumer.rows";
+
+	static final String WRITE_METER_NAME = "cassandra.consumer.write";
+
+	static final String WRITE_ERRORS_METER_NAME = "cassandra.consumer.write.errors";
+
+	static final String UNKNOWN = "unknown";
+
+	private static final Pattern TABLE = Pattern.compile("^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+.*?FROM)\\s+" +
+			"(?:\"?(\\w+)\"?\\.)?\"?(\\w+)\"?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private final MeterRegistry meterRegistry;
+
+	private final Tags tags;
+
+	private final Timer transformTimer;
+
+	private final DistributionSummary rowsSummary;
+
+	private final Timer writeTimer;
+
+	CassandraWriteMetrics(MeterRegistry meterRegistry, String keyspace, String table,
+			ConsistencyLevel consistencyLevel) {
+
+		this.meterRegistry = meterRegistry;
+		this.tags = Tags.of("keyspace", keyspace != null ? keyspace : UNKNOWN,
+				"table", table != null ? table : UNKNOWN);
+		this.transformTimer = Timer.builder(TRANSFORM_METER_NAME)
+				.tags(this.tags)
+				.description("The time to transform a message payload into the rows for the ingest query")
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+		this.rowsSummary = DistributionSummary.builder(ROWS_METER_NAME)
+				.tags(this.tags)
+				.baseUnit("rows")
+				.description("The number of rows per ingested message")
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+		this.writeTimer = Timer.builder(WRITE_METER_NAME)
+				.tags(this.tags)
+				.tag("consistency", consistencyLevel != null ? consistencyLevel.name() : "default")
+				.description("The latency of successful Cassandra writes")
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	void recordTransform(long nanos, int rows) {
+		this.transformTimer.record(nanos, TimeUnit.NANOSECONDS);
+		this.rowsSummary.record(rows);
+	}
+
+	/**
+	 * Time each subscription to the write and count its failure by the exception type.
+	 * @param write the write to instrument.
+	 * @param <T> the write result type.
+	 * @return the instrumented write.
+	 */
+	<T> Mono<T> timeWrite(Mono<T> write) {
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return write
+					.doOnSuccess(result -> this.writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+					.doOnError(this::recordError);
+		});
+	}
+
+	private void recordError(Throwable error) {
+		Counter.builder(WRITE_ERRORS_METER_NAME)
+				.tags(this.tags)
+				.tag("exception", error.getClass().getSimpleName())
+				.description("The number of failed Cassandra writes")
+				.register(this.meterRegistry)
+				.increment();
+	}
+
+	/**
+	 * Resolve the keyspace and table tags from the ingest query.
+	 * @param query the ingest query, may be {@code null}.
+	 * @param defaultKeyspace the session keyspace used if the table name is not qualified.
+	 * @param meterRegistry the registry to bind the meters to.
+	 * @param consistencyLevel the configured write consistency level, may be {@code null}.
+	 * @return the metrics.
+	 */
+	static CassandraWriteMetrics forQuery(String query, String defaultKeyspace, MeterRegistry meterRegistry,
+			ConsistencyLevel consistencyLevel) {
+
+		String keyspace = defaultKeyspace;
+		String table = null;
+		if (query != null) {
+			Matcher matcher = TABLE.matcher(query);
+			if (matcher.find()) {
+				if (matcher.group(1) != null) {
+					keyspace = matcher.group(1);
+				}
+				table = matcher.group(2);
+			}
+		}
+		return new CassandraWriteMetrics(meterRegistry, keyspace, table, consistencyLevel);
+	}
+
+}
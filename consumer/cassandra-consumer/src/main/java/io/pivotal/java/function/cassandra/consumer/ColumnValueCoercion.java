@@ -0,0 +1,281 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.datastax.oss.driver.api.core.type.DataType;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+
+/**
+ * Stateless, thread-safe coercion of the values read from JSON into the Java types
+ * expected by the driver codecs for the target columns.
+ * <p>
+ * When the column type is known (see {@link #forType(DataType)}) the coercion is decided once per column;
+ * otherwise {@link #guess(Object)} detects ISO-8601 dates and UUIDs in each {@code String} value.
+ */
+final class ColumnValueCoercion {
+
+	/**
+	 * Coerce ISO-8601 strings into {@link LocalDate} and UUID strings into {@link UUID},
+	 * leave other values as is.
+	 */
+	static final UnaryOperator<Object> GUESS = ColumnValueCoercion::guess;
+
+	private ColumnValueCoercion() {
+	}
+
+	/**
+	 * Provide the coercion for the column type.
+	 * @param type the CQL type of the column.
+	 * @return the coercion function.
+	 */
+	static UnaryOperator<Object> forType(DataType type) {
+		if (DataTypes.UUID.equals(type) || DataTypes.TIMEUUID.equals(type)) {
+			return value -> value instanceof String ? UUID.fromString((String) value) : value;
+		}
+		else if (DataTypes.DATE.equals(type)) {
+			return fromString(ColumnValueCoercion::parseLocalDate);
+		}
+		else if (DataTypes.TIMESTAMP.equals(type)) {
+			UnaryOperator<Object> fromMillis = fromNumber(Long.class, number -> decimal(number).longValueExact());
+			return value -> {
+				if (value instanceof Number) {
+					Object millis = fromMillis.apply(value);
+					return millis instanceof Long ? Instant.ofEpochMilli((Long) millis) : value;
+				}
+				return fromString(ColumnValueCoercion::parseInstant).apply(value);
+			};
+		}
+		else if (DataTypes.TIME.equals(type)) {
+			return fromString(ColumnValueCoercion::parseLocalTime);
+		}
+		else if (DataTypes.INT.equals(type)) {
+			return fromNumber(Integer.class, number -> decimal(number).intValueExact());
+		}
+		else if (DataTypes.BIGINT.equals(type) || DataTypes.COUNTER.equals(type)) {
+			return fromNumber(Long.class, number -> decimal(number).longValueExact());
+		}
+		else if (DataTypes.SMALLINT.equals(type)) {
+			return fromNumber(Short.class, number -> decimal(number).shortValueExact());
+		}
+		else if (DataTypes.TINYINT.equals(type)) {
+			return fromNumber(Byte.class, number -> decimal(number).byteValueExact());
+		}
+		else if (DataTypes.FLOAT.equals(type)) {
+			return fromNumber(Float.class, number -> finite(number, number.floatValue()));
+		}
+		else if (DataTypes.DOUBLE.equals(type)) {
+			return fromNumber(Double.class, number -> finite(number, number.doubleValue()));
+		}
+		else if (DataTypes.DECIMAL.equals(type)) {
+			return fromNumber(BigDecimal.class, ColumnValueCoercion::decimal);
+		}
+		else if (DataTypes.VARINT.equals(type)) {
+			return fromNumber(BigInteger.class, number -> decimal(number).toBigIntegerExact());
+		}
+		else {
+			return UnaryOperator.identity();
+		}
+	}
+
+	static Object guess(Object value) {
+		if (value instanceof String) {
+			String string = (String) value;
+			LocalDate date = parseLocalDate(string);
+			if (date != null) {
+				return date;
+			}
+			if (isUuid(string)) {
+				return UUID.fromString(string);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Check if the string is in the canonical {@code 8-4-4-4-12} hex digits UUID form.
+	 * @param string the string to check.
+	 * @return true if the string is a UUID.
+	 */
+	static boolean isUuid(CharSequence string) {
+		if (string.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char c = string.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			}
+			else if (Character.digit(c, 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse an ISO-8601 date ({@code 2020-03-01}) or date-time ({@code 2020-03-01T10:15:30.000+0000}).
+	 * A date-time is converted to the date in the default time zone.
+	 * @param string the string to parse.
+	 * @return the date or {@code null} if the string is not an ISO-8601 date or date-time.
+	 */
+	static LocalDate parseLocalDate(String string) {
+		if (!startsWithIsoDate(string)) {
+			return null;
+		}
+		if (string.length() == 10) {
+			try {
+				return LocalDate.of(digits(string, 0, 4), digits(string, 5, 7), digits(string, 8, 10));
+			}
+			catch (DateTimeException ex) {
+				return null;
+			}
+		}
+		Instant instant = parseInstant(string);
+		return instant != null ? instant.atZone(ZoneId.systemDefault()).toLocalDate() : null;
+	}
+
+	/**
+	 * Parse an ISO-8601 date-time; the one without an offset and a plain date are treated as UTC.
+	 * The offset can be in the {@code Z}, {@code +hh}, {@code +hhmm} or {@code +hh:mm} form.
+	 * @param string the string to parse.
+	 * @return the instant or {@code null} if the string is not an ISO-8601 date or date-time.
+	 */
+	static Instant parseInstant(String string) {
+		if (!startsWithIsoDate(string)) {
+			return null;
+		}
+		try {
+			if (string.length() == 10) {
+				return LocalDate.of(digits(string, 0, 4), digits(string, 5, 7), digits(string, 8, 10))
+						.atStartOfDay(ZoneOffset.UTC)
+						.toInstant();
+			}
+			if (string.charAt(10) != 'T') {
+				return null;
+			}
+			int offsetIndex = string.length();
+			for (int i = 11; i < string.length(); i++) {
+				char c = string.charAt(i);
+				if (c == 'Z' || c == '+' || c == '-') {
+					offsetIndex = i;
+					break;
+				}
+			}
+			ZoneOffset offset =
+					offsetIndex < string.length()
+							? ZoneOffset.of(string.substring(offsetIndex))
+							: ZoneOffset.UTC;
+			return LocalDateTime.parse(string.substring(0, offsetIndex)).toInstant(offset);
+		}
+		catch (DateTimeException ex) {
+			return null;
+		}
+	}
+
+	private static LocalTime parseLocalTime(String string) {
+		try {
+			return LocalTime.parse(string);
+		}
+		catch (DateTimeException ex) {
+			return null;
+		}
+	}
+
+	private static boolean startsWithIsoDate(String string) {
+		if (string.length() < 10) {
+			return false;
+		}
+		for (int i = 0; i < 10; i++) {
+			char c = string.charAt(i);
+			if ((i == 4 || i == 7) ? c != '-' : (c < '0' || c > '9')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int digits(String string, int start, int end) {
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			value = value * 10 + (string.charAt(i) - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Parse {@code String} values, leave the value as is if it is not a {@code String} or cannot be parsed,
+	 * so the driver reports the mismatch for the column.
+	 */
+	private static UnaryOperator<Object> fromString(Function<String, Object> parser) {
+		return value -> {
+			if (value instanceof String) {
+				Object parsed = parser.apply((String) value);
+				return parsed != null ? parsed : value;
+			}
+			return value;
+		};
+	}
+
+	/**
+	 * Convert {@code Number} values without losing their integer part or overflowing,
+	 * leave the value as is if it does not fit the type, so the driver reports the mismatch for the column.
+	 * Floating-point types only reject overflows: rounding to the nearest value is expected for them.
+	 */
+	private static UnaryOperator<Object> fromNumber(Class<? extends Number> type,
+			Function<Number, ? extends Number> converter) {
+
+		return value -> {
+			if (value instanceof Number && !type.isInstance(value)) {
+				try {
+					return converter.apply((Number) value);
+				}
+				catch (ArithmeticException | NumberFormatException ex) {
+					return value;
+				}
+			}
+			return value;
+		};
+	}
+
+	private static BigDecimal decimal(Number number) {
+		return number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal(number.toString());
+	}
+
+	private static <T extends Number> T finite(Number number, T converted) {
+		boolean floatingPoint = number instanceof Double || number instanceof Float;
+		if (!Double.isFinite(converted.doubleValue()) && !(floatingPoint && !Double.isFinite(number.doubleValue()))) {
+			throw new ArithmeticException("Overflow: " + number);
+		}
+		return converted;
+	}
+
+}
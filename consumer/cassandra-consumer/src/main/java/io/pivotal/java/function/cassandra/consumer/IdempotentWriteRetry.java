@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.UnavailableException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Re-subscribes to a failed idempotent write with an exponential backoff and a full jitter,
+ * if the write failed with a timeout, an unavailable or an overloaded replica.
+ * Writes are idempotent if their CQL is not a lightweight transaction ({@code IF ...}),
+ * a counter update or a list append or prepend; see {@link #isIdempotent(String)}.
+ * <p>
+ * Thread-safe.
+ */
+final class IdempotentWriteRetry {
+
+	private static final Log LOGGER = LogFactory.getLog(IdempotentWriteRetry.class);
+
+	private static final Pattern LIGHTWEIGHT_TRANSACTION = Pattern.compile("(?i)\\bIF\\b");
+
+	private static final Pattern COUNTER_OR_APPEND = Pattern.compile("(?i)\\b(\\w+)\\s*=\\s*\\1\\s*[-+]");
+
+	private static final Pattern PREPEND = Pattern.compile("=\\s*(\\[[^\\]]*\\]|\\?|:\\w+)\\s*\\+");
+
+	private final int maxRetries;
+
+	private final long firstBackoff;
+
+	private final long maxBackoff;
+
+	IdempotentWriteRetry(int maxRetries, Duration firstBackoff, Duration maxBackoff) {
+		Assert.isTrue(maxRetries > 0, "'maxRetries' must be positive");
+		Assert.isTrue(!firstBackoff.isNegative() && firstBackoff.compareTo(maxBackoff) <= 0,
+				"The backoffs must satisfy: 0 <= first <= max");
+		this.maxRetries = maxRetries;
+		this.firstBackoff = firstBackoff.toMillis();
+		this.maxBackoff = maxBackoff.toMillis();
+	}
+
+	/**
+	 * Retry the write on a transient failure.
+	 * The write must be cold: each subscription must execute it again.
+	 * @param write the idempotent write.
+	 * @param <T> the write result type.
+	 * @return the write with retries.
+	 */
+	<T> Mono<T> apply(Mono<T> write) {
+		return write.retryWhen(errors -> {
+			AtomicInteger attempts = new AtomicInteger();
+			return errors.concatMap(error -> {
+				int attempt = attempts.incrementAndGet();
+				if (attempt > this.maxRetries || !isRetryable(error)) {
+					return Mono.error(error);
+				}
+				long backoff = Math.min(this.maxBackoff, this.firstBackoff << Math.min(attempt - 1, 30));
+				long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Retrying the write (attempt " + attempt + ") in " + delay + " ms after: " + error);
+				}
+				return Mono.delay(Duration.ofMillis(delay));
+			});
+		});
+	}
+
+	static boolean isIdempotent(String cql) {
+		return !LIGHTWEIGHT_TRANSACTION.matcher(cql).find()
+				&& !COUNTER_OR_APPEND.matcher(cql).find()
+				&& !PREPEND.matcher(cql).find();
+	}
+
+	static boolean isRetryable(Throwable error) {
+		Throwable cause = error;
+		while (cause != null) {
+			if (cause instanceof WriteTimeoutException || cause instanceof DriverTimeoutException
+					|| cause instanceof UnavailableException || cause instanceof OverloadedException) {
+
+				return true;
+			}
+			cause = cause.getCause() != cause ? cause.getCause() : null;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+/**
+ * Defines the supported modes of executing the rows of {@code cassandra.ingest-query}.
+ */
+public enum IngestMode {
+
+	/**
+	 * The whole matrix of rows is executed by the {@code CassandraMessageHandler}.
+	 */
+	handler,
+
+	/**
+	 * The rows are bound to the once prepared ingest statement, grouped by their partition key
+	 * into unlogged batches of up to {@code cassandra.batch-size} statements,
+	 * and the batches are executed concurrently up to {@code cassandra.max-in-flight}.
+	 */
+	batch,
+
+	/**
+	 * The rows are bound to the once prepared ingest statement and executed as single-partition
+	 * asynchronous writes, up to {@code cassandra.max-in-flight} concurrently.
+	 */
+	async,
+
+	/**
+	 * The rows are split into shards by the primary replica of their partition according to the driver's
+	 * token map, and up to {@code cassandra.shard-parallelism} shards are written in parallel,
+	 * each as in the {@link #batch} mode with up to {@code cassandra.max-in-flight} concurrent statements.
+	 */
+	sharded;
+
+}
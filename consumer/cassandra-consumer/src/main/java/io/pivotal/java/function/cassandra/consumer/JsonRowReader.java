@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a JSON array of objects (or a single object) straight into the rows of values
+ * for the columns of an ingest query in a single pass of a Jackson streaming parser.
+ * The properties which are not mapped to columns are skipped without being deserialized,
+ * so no intermediate {@code Map} per entity is built.
+ * <p>
+ * Scalar values are read as text, numbers and booleans; objects and arrays of the mapped
+ * properties are deserialized into {@code Map}s and {@code List}s by the {@link ObjectMapper}.
+ * Missing properties are {@code null}.
+ * <p>
+ * Thread-safe.
+ *
+ * @see io.pivotal.java.function.cassandra.consumer.query.ColumnNameExtractor
+ */
+final class JsonRowReader {
+
+	private final JsonFactory jsonFactory;
+
+	private final Map<String, Integer> columnIndexes;
+
+	private final int columnCount;
+
+	JsonRowReader(ObjectMapper objectMapper, List<String> columns) {
+		this.jsonFactory = objectMapper.getFactory();
+		this.columnCount = columns.size();
+		this.columnIndexes = new HashMap<>(columns.size() * 2);
+		for (int i = 0; i < this.columnCount; i++) {
+			this.columnIndexes.putIfAbsent(columns.get(i), i);
+		}
+	}
+
+	int getColumnCount() {
+		return this.columnCount;
+	}
+
+	/**
+	 * Read the JSON document into rows.
+	 * @param json the JSON as a {@code String}, {@code byte[]}, {@link Reader}, {@link InputStream},
+	 * {@link File} or {@link URL}.
+	 * @return the rows of values ordered as the columns the reader was created for.
+	 * @throws IOException if the JSON cannot be parsed.
+	 */
+	List<Object[]> read(Object json) throws IOException {
+		try (JsonParser parser = createParser(json)) {
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_OBJECT) {
+				List<Object[]> rows = new ArrayList<>(1);
+				rows.add(readRow(parser));
+				return rows;
+			}
+			else if (token == JsonToken.START_ARRAY) {
+				List<Object[]> rows = new ArrayList<>();
+				while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+					rows.add(readRow(parser));
+				}
+				if (token != JsonToken.END_ARRAY) {
+					throw new IOException("Expected a JSON object as an array element, but got: " + token);
+				}
+				return rows;
+			}
+			else {
+				throw new IOException("Expected a JSON object or an array of objects, but got: " + token);
+			}
+		}
+	}
+
+	private Object[] readRow(JsonParser parser) throws IOException {
+		Object[] row = new Object[this.columnCount];
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			Integer column = this.columnIndexes.get(parser.getCurrentName());
+			JsonToken token = parser.nextToken();
+			if (column == null) {
+				parser.skipChildren();
+			}
+			else {
+				row[column] = value(parser, token);
+			}
+		}
+		return row;
+	}
+
+	private JsonParser createParser(Object json) throws IOException {
+		if (json instanceof String) {
+			return this.jsonFactory.createParser((String) json);
+		}
+		else if (json instanceof byte[]) {
+			return this.jsonFactory.createParser((byte[]) json);
+		}
+		else if (json instanceof Reader) {
+			return this.jsonFactory.createParser((Reader) json);
+		}
+		else if (json instanceof InputStream) {
+			return this.jsonFactory.createParser((InputStream) json);
+		}
+		else if (json instanceof File) {
+			return this.jsonFactory.createParser((File) json);
+		}
+		else if (json instanceof URL) {
+			return this.jsonFactory.createParser((URL) json);
+		}
+		else {
+			throw new IllegalArgumentException("'json' argument must be an instance of: " +
+					Arrays.asList(String.class, byte[].class, Reader.class, InputStream.class, File.class, URL.class) +
+					", but gotten: " + json.getClass());
+		}
+	}
+
+	private static Object value(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return parser.getNumberValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_EMBEDDED_OBJECT:
+				return parser.getEmbeddedObject();
+			case START_OBJECT:
+			case START_ARRAY:
+				return parser.readValueAs(Object.class);
+			default:
+				return null;
+		}
+	}
+
+}
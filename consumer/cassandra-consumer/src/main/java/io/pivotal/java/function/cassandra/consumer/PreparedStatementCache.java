@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.springframework.util.Assert;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * A bounded LRU cache of the statements prepared for the CQL text.
+ * The statement is prepared on the first subscription to the cached {@link Mono};
+ * a failed preparation is not cached and is retried on the next request.
+ * <p>
+ * Thread-safe.
+ */
+final class PreparedStatementCache {
+
+	static final String GETS_METER_NAME = "cassandra.consumer.statement.cache.gets";
+
+	static final String SIZE_METER_NAME = "cassandra.consumer.statement.cache.size";
+
+	private static final Duration FOREVER = Duration.ofMillis(Long.MAX_VALUE);
+
+	private final Supplier<CqlSession> cqlSession;
+
+	private final Map<String, Mono<PreparedStatement>> cache;
+
+	private Counter hits;
+
+	private Counter misses;
+
+	PreparedStatementCache(Supplier<CqlSession> cqlSession, int maxSize) {
+		Assert.isTrue(maxSize > 0, "'maxSize' must be positive");
+		this.cqlSession = cqlSession;
+		this.cache = new LinkedHashMap<String, Mono<PreparedStatement>>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Mono<PreparedStatement>> eldest) {
+				return size() > maxSize;
+			}
+
+		};
+	}
+
+	void bindTo(MeterRegistry meterRegistry) {
+		this.hits = Counter.builder(GETS_METER_NAME)
+				.tag("result", "hit")
+				.description("The number of statement cache hits")
+				.register(meterRegistry);
+		this.misses = Counter.builder(GETS_METER_NAME)
+				.tag("result", "miss")
+				.description("The number of statement cache misses")
+				.register(meterRegistry);
+		Gauge.builder(SIZE_METER_NAME, this, PreparedStatementCache::size)
+				.description("The number of cached prepared statements")
+				.register(meterRegistry);
+	}
+
+	synchronized int size() {
+		return this.cache.size();
+	}
+
+	Mono<PreparedStatement> get(String cql) {
+		Mono<PreparedStatement> preparedStatement;
+		boolean hit;
+		synchronized (this) {
+			preparedStatement = this.cache.get(cql);
+			hit = preparedStatement != null;
+			if (!hit) {
+				preparedStatement =
+						Mono.defer(() -> Mono.fromCompletionStage(this.cqlSession.get().prepareAsync(cql)))
+								.cache(prepared -> FOREVER, error -> Duration.ZERO, () -> Duration.ZERO);
+				this.cache.put(cql, preparedStatement);
+			}
+		}
+		Counter counter = hit ? this.hits : this.misses;
+		if (counter != null) {
+			counter.increment();
+		}
+		return preparedStatement;
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.springframework.data.cassandra.core.WriteResult;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import reactor.core.publisher.Mono;
+
+/**
+ * Executes the statement evaluated from {@code cassandra.statement-expression} for each message
+ * through the {@link PreparedStatementCache}, so repeated statement shapes are parsed by the server only once.
+ * <p>
+ * A {@link SimpleStatement} is replaced with the cached prepared statement for its query text,
+ * bound with the statement's positional or named values and options.
+ * When the binding of values is disabled, only the statements without values are prepared,
+ * and other statements are executed as evaluated. The statements with a per-query keyspace
+ * or without a value for some named variable are executed as evaluated as well:
+ * binding {@code null} instead would write a tombstone.
+ * Idempotent statements are marked as such for the driver speculative executions
+ * and retried on transient failures, if an {@link IdempotentWriteRetry} is provided.
+ * Each attempt is timed and acquires its own permit from the concurrency limiter, if set,
+ * so neither the permit nor the latency sample covers the retry backoff.
+ * <p>
+ * Thread-safe.
+ */
+class StatementExpressionWriter {
+
+	private final Supplier<CqlSession> cqlSession;
+
+	private final Expression statementExpression;
+
+	private final EvaluationContext evaluationContext;
+
+	private final PreparedStatementCache preparedStatementCache;
+
+	private final boolean bindValues;
+
+	private final ConsistencyLevel consistencyLevel;
+
+	private final IdempotentWriteRetry retry;
+
+	private AimdConcurrencyLimiter concurrencyLimiter;
+
+	private CassandraWriteMetrics metrics;
+
+	StatementExpressionWriter(Supplier<CqlSession> cqlSession, Expression statementExpression,
+			EvaluationContext evaluationContext, PreparedStatementCache preparedStatementCache, boolean bindValues,
+			ConsistencyLevel consistencyLevel, IdempotentWriteRetry retry) {
+
+		this.cqlSession = cqlSession;
+		this.statementExpression = statementExpression;
+		this.evaluationContext = evaluationContext;
+		this.preparedStatementCache = preparedStatementCache;
+		this.bindValues = bindValues;
+		this.consistencyLevel = consistencyLevel;
+		this.retry = retry;
+	}
+
+	/**
+	 * Set the limiter to acquire a permit from for every write attempt.
+	 * @param concurrencyLimiter the limiter.
+	 */
+	void setConcurrencyLimiter(AimdConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * Set the metrics to time every write attempt with, after its permit is acquired.
+	 * @param metrics the metrics.
+	 */
+	void setWriteMetrics(CassandraWriteMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	Mono<WriteResult> write(Message<?> message) {
+		Statement<?> statement = this.statementExpression.getValue(this.evaluationContext, message, Statement.class);
+		Assert.state(statement != null, () -> "The 'statementExpression' evaluated to null for: " + message);
+		boolean idempotent = isIdempotent(statement);
+		Mono<WriteResult> write = null;
+		if (statement instanceof SimpleStatement) {
+			SimpleStatement simpleStatement = (SimpleStatement) statement;
+			// The per-query keyspace is not a part of the prepared statements cache key
+			if (simpleStatement.getKeyspace() == null && (this.bindValues || !hasValues(simpleStatement))) {
+				write = this.preparedStatementCache.get(simpleStatement.getQuery())
+						.flatMap(prepared -> {
+							BoundStatement boundStatement = bind(prepared, simpleStatement);
+							return execute(boundStatement != null ? boundStatement : simpleStatement, idempotent);
+						});
+			}
+		}
+		if (write == null) {
+			write = execute(statement, idempotent);
+		}
+		return write;
+	}
+
+	private Mono<WriteResult> execute(Statement<?> statement, boolean idempotent) {
+		Statement<?> withIdempotence = statement.setIdempotent(idempotent);
+		Statement<?> toExecute =
+				this.consistencyLevel != null && statement.getConsistencyLevel() == null
+						? withIdempotence.setConsistencyLevel(this.consistencyLevel)
+						: withIdempotence;
+		Mono<WriteResult> execution =
+				Mono.defer(() -> Mono.fromCompletionStage(this.cqlSession.get().executeAsync(toExecute)))
+						.map(resultSet -> CassandraIngestWriter.combine(Collections.singletonList(resultSet)));
+		Mono<WriteResult> timed = this.metrics != null ? this.metrics.timeWrite(execution) : execution;
+		Mono<WriteResult> limited = this.concurrencyLimiter != null ? this.concurrencyLimiter.limit(timed) : timed;
+		return this.retry != null && idempotent ? this.retry.apply(limited) : limited;
+	}
+
+	/**
+	 * An explicit statement idempotence wins; otherwise the {@link SimpleStatement} query is checked
+	 * by the {@link IdempotentWriteRetry#isIdempotent(String)}, and other statements are not idempotent.
+	 */
+	private static boolean isIdempotent(Statement<?> statement) {
+		Boolean idempotent = statement.isIdempotent();
+		if (idempotent != null) {
+			return idempotent;
+		}
+		return statement instanceof SimpleStatement
+				&& IdempotentWriteRetry.isIdempotent(((SimpleStatement) statement).getQuery());
+	}
+
+	private static boolean hasValues(SimpleStatement statement) {
+		return !statement.getPositionalValues().isEmpty() || !statement.getNamedValues().isEmpty();
+	}
+
+	/**
+	 * Bind the statement values into the prepared statement and copy all the statement options.
+	 * @param preparedStatement the statement prepared from the query text of the statement.
+	 * @param statement the evaluated statement.
+	 * @return the bound statement or null if a named variable has no value in the statement.
+	 */
+	static BoundStatement bind(PreparedStatement preparedStatement, SimpleStatement statement) {
+		Object[] values;
+		Map<CqlIdentifier, Object> namedValues = statement.getNamedValues();
+		if (namedValues.isEmpty()) {
+			// The variables after the provided positional values are left unset
+			List<Object> positionalValues = statement.getPositionalValues();
+			values = positionalValues.toArray();
+		}
+		else {
+			ColumnDefinitions variables = preparedStatement.getVariableDefinitions();
+			values = new Object[variables.size()];
+			for (int i = 0; i < values.length; i++) {
+				CqlIdentifier name = variables.get(i).getName();
+				if (!namedValues.containsKey(name)) {
+					return null;
+				}
+				values[i] = namedValues.get(name);
+			}
+		}
+		BoundStatement boundStatement = preparedStatement.bind(values);
+		// The execution profile and its name replace each other
+		boundStatement =
+				statement.getExecutionProfile() != null
+						? boundStatement.setExecutionProfile(statement.getExecutionProfile())
+						: boundStatement.setExecutionProfileName(statement.getExecutionProfileName());
+		return boundStatement
+				.setConsistencyLevel(statement.getConsistencyLevel())
+				.setSerialConsistencyLevel(statement.getSerialConsistencyLevel())
+				.setQueryTimestamp(statement.getQueryTimestamp())
+				.setTimeout(statement.getTimeout())
+				.setPageSize(statement.getPageSize())
+				.setPagingState(statement.getPagingState())
+				.setRoutingKeyspace(statement.getRoutingKeyspace())
+				.setRoutingKey(statement.getRoutingKey())
+				.setRoutingToken(statement.getRoutingToken())
+				.setCustomPayload(statement.getCustomPayload())
+				.setTracing(statement.isTracing())
+				.setNode(statement.getNode());
+	}
+
+}
@@ -27,6 +27,7 @@ import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
 import org.springframework.boot.autoconfigure.cassandra.CassandraProperties;
 import org.springframework.boot.autoconfigure.cassandra.CqlSessionBuilderCustomizer;
+import org.springframework.boot.autoconfigure.cassandra.DriverConfigLoaderBuilderCustomizer;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.domain.EntityScanPackages;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -42,16 +43,13 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.Environment;
 import org.springframework.core.type.AnnotationMetadata;
 import org.springframework.data.cassandra.config.CqlSessionFactoryBean;
-import org.springframework.data.cassandra.core.ReactiveCassandraTemplate;
 import org.springframework.data.cassandra.core.cql.CqlTemplate;
-import org.springframework.data.cassandra.core.cql.ReactiveCqlOperations;
 import org.springframework.data.cassandra.core.cql.generator.CreateKeyspaceCqlGenerator;
 import org.springframework.data.cassandra.core.cql.keyspace.CreateKeyspaceSpecification;
-import org.springframework.util.StringUtils;
 
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.CqlSessionBuilder;
-import reactor.core.publisher.Flux;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
 
 /**
  * @author Artem Bilan
@@ -83,6 +81,28 @@ public class CassandraAppClusterConfiguration {
 						});
 	}
 
+	/**
+	 * The speculative execution policy is a driver configuration option, so it is applied
+	 * to the config loader rather than to the session builder.
+	 * The driver starts speculative executions only for the statements marked as idempotent.
+	 */
+	@Bean
+	@ConditionalOnProperty("cassandra.cluster.speculative-executions")
+	public DriverConfigLoaderBuilderCustomizer speculativeExecutionCustomizer(
+			CassandraClusterProperties cassandraClusterProperties) {
+
+		return builder -> {
+			if (cassandraClusterProperties.getSpeculativeExecutions() > 0) {
+				builder.withString(DefaultDriverOption.SPECULATIVE_EXECUTION_POLICY_CLASS,
+						"ConstantSpeculativeExecutionPolicy")
+						.withInt(DefaultDriverOption.SPECULATIVE_EXECUTION_MAX,
+								cassandraClusterProperties.getSpeculativeExecutions() + 1)
+						.withDuration(DefaultDriverOption.SPECULATIVE_EXECUTION_DELAY,
+								cassandraClusterProperties.getSpeculativeExecutionDelay());
+			}
+		};
+	}
+
 	@Bean
 	@ConditionalOnProperty("cassandra.cluster.create-keyspace")
 	public Object keyspaceCreator(CassandraProperties cassandraProperties, CqlSessionBuilder cqlSessionBuilder) {
@@ -113,7 +133,7 @@ public class CassandraAppClusterConfiguration {
 	@Bean
 	@ConditionalOnProperty("cassandra.cluster.init-script")
 	public Object keyspaceInitializer(CassandraClusterProperties cassandraClusterProperties,
-			ReactiveCassandraTemplate reactiveCassandraTemplate) throws IOException {
+			CqlSession cqlSession) throws IOException {
 
 		String scripts =
 				new Scanner(cassandraClusterProperties.getInitScript().getInputStream(),
@@ -121,13 +141,9 @@ public class CassandraAppClusterConfiguration {
 						.useDelimiter("\\A")
 						.next();
 
-		ReactiveCqlOperations reactiveCqlOperations =
-				reactiveCassandraTemplate.getReactiveCqlOperations();
-
-		Flux.fromArray(StringUtils.delimitedListToStringArray(scripts, ";", "\r\n\f"))
-				.filter(StringUtils::hasText) // an empty String after the last ';'
-				.flatMap(script -> reactiveCqlOperations.execute(script + ";"))
-				.blockLast();
+		new CqlScriptRunner(cqlSession, cassandraClusterProperties.getInitScriptConcurrency(),
+				cassandraClusterProperties.getSchemaAgreementTimeout())
+				.run(scripts);
 
 		return null;
 
@@ -16,6 +16,8 @@
 
 package io.pivotal.java.function.cassandra.consumer.cluster;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.io.Resource;
 
@@ -39,6 +41,17 @@ public class CassandraClusterProperties {
 	 */
 	private Resource initScript;
 
+	/**
+	 * The maximum number of independent init script data statements executed concurrently;
+	 * the schema statements are executed one by one in the script order.
+	 */
+	private int initScriptConcurrency = 16;
+
+	/**
+	 * The maximum time to wait for the schema agreement between dependent init script statements.
+	 */
+	private Duration schemaAgreementTimeout = Duration.ofSeconds(10);
+
 	/**
 	 * Flag to validate the Servers' SSL certs
 	 */
@@ -49,6 +62,17 @@ public class CassandraClusterProperties {
 	 */
 	private String[] entityBasePackages = { };
 
+	/**
+	 * The maximum number of speculative executions of an idempotent request started on other nodes
+	 * when the previous execution hasn't responded in 'speculative-execution-delay'. 0 to disable.
+	 */
+	private int speculativeExecutions;
+
+	/**
+	 * The delay before starting the next speculative execution of an idempotent request.
+	 */
+	private Duration speculativeExecutionDelay = Duration.ofMillis(100);
+
 
 	public void setCreateKeyspace(boolean createKeyspace) {
 		this.createKeyspace = createKeyspace;
@@ -70,6 +94,22 @@ public class CassandraClusterProperties {
 		return this.initScript;
 	}
 
+	public int getInitScriptConcurrency() {
+		return this.initScriptConcurrency;
+	}
+
+	public void setInitScriptConcurrency(int initScriptConcurrency) {
+		this.initScriptConcurrency = initScriptConcurrency;
+	}
+
+	public Duration getSchemaAgreementTimeout() {
+		return this.schemaAgreementTimeout;
+	}
+
+	public void setSchemaAgreementTimeout(Duration schemaAgreementTimeout) {
+		this.schemaAgreementTimeout = schemaAgreementTimeout;
+	}
+
 	public boolean isSkipSslValidation() {
 		return this.skipSslValidation;
 	}
@@ -82,4 +122,20 @@ public class CassandraClusterProperties {
 		this.entityBasePackages = entityBasePackages;
 	}
 
+	public int getSpeculativeExecutions() {
+		return this.speculativeExecutions;
+	}
+
+	public void setSpeculativeExecutions(int speculativeExecutions) {
+		this.speculativeExecutions = speculativeExecutions;
+	}
+
+	public Duration getSpeculativeExecutionDelay() {
+		return this.speculativeExecutionDelay;
+	}
+
+	public void setSpeculativeExecutionDelay(Duration speculativeExecutionDelay) {
+		this.speculativeExecutionDelay = speculativeExecutionDelay;
+	}
+
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer.cluster;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Executes a CQL script (statements delimited by {@code ;}) in dependency levels.
+ * <p>
+ * A schema statement ({@code CREATE}, {@code ALTER} or {@code DROP}) and any other statement
+ * except data ones (e.g. {@code USE}, {@code TRUNCATE} or {@code BEGIN BATCH}) is a barrier:
+ * the only statement on its level, executed in the script order, since concurrent schema changes
+ * may end up in a schema disagreement. A data statement ({@code INSERT}, {@code UPDATE} or {@code DELETE})
+ * depends on the preceding barrier and on the earlier writes into the same table,
+ * except when both are {@code INSERT}s.
+ * <p>
+ * The statements of the same level are independent and executed concurrently;
+ * the schema agreement is awaited after a schema statement, if it has not reached
+ * the agreement by the time of its response.
+ */
+final class CqlScriptRunner {
+
+	private static final Log LOGGER = LogFactory.getLog(CqlScriptRunner.class);
+
+	private static final String NAME = "(\"?\\w+\"?(?:\\.\"?\\w+\"?)?)";
+
+	private static final Pattern SCHEMA_STATEMENT = Pattern.compile("^(?:CREATE|ALTER|DROP)\\s",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern DATA_STATEMENT = Pattern.compile(
+			"^(INSERT\\s+INTO|UPDATE|DELETE\\s+(?:.*?\\s+)?FROM)\\s+" + NAME,
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private static final Pattern COMMENT_LINE = Pattern.compile("(?m)^\\s*(--|//).*$");
+
+	private static final long SCHEMA_AGREEMENT_POLL_INTERVAL = 200;
+
+	private final CqlSession session;
+
+	private final int concurrency;
+
+	private final Duration schemaAgreementTimeout;
+
+	CqlScriptRunner(CqlSession session, int concurrency, Duration schemaAgreementTimeout) {
+		Assert.isTrue(concurrency > 0, "'concurrency' must be positive");
+		this.session = session;
+		this.concurrency = concurrency;
+		this.schemaAgreementTimeout = schemaAgreementTimeout;
+	}
+
+	void run(String script) {
+		for (List<ScriptStatement> level : plan(script)) {
+			List<Boolean> agreements =
+					Flux.fromIterable(level)
+							.flatMapSequential(this::execute, this.concurrency)
+							.collectList()
+							.block();
+			if (agreements != null && agreements.contains(Boolean.FALSE)) {
+				awaitSchemaAgreement();
+			}
+		}
+	}
+
+	private Mono<Boolean> execute(ScriptStatement statement) {
+		return Mono.defer(() -> Mono.fromCompletionStage(this.session.executeAsync(statement.getCql())))
+				.map(AsyncResultSet::getExecutionInfo)
+				.map(info -> !statement.isSchema() || info.isSchemaInAgreement());
+	}
+
+	private void awaitSchemaAgreement() {
+		long deadline = System.nanoTime() + this.schemaAgreementTimeout.toNanos();
+		while (!this.session.checkSchemaAgreement()) {
+			if (System.nanoTime() > deadline) {
+				LOGGER.warn("The schema agreement has not been reached in " + this.schemaAgreementTimeout +
+						"; continuing the script execution");
+				return;
+			}
+			try {
+				Thread.sleep(SCHEMA_AGREEMENT_POLL_INTERVAL);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the schema agreement", ex);
+			}
+		}
+	}
+
+	/**
+	 * Split the script into statements and group them into the dependency levels.
+	 * @param script the CQL script.
+	 * @return the levels of independent statements in the execution order.
+	 */
+	static List<List<ScriptStatement>> plan(String script) {
+		List<List<ScriptStatement>> levels = new ArrayList<>();
+		Map<String, Integer> writeLevels = new HashMap<>();
+		Map<String, Integer> nonInsertWriteLevels = new HashMap<>();
+		int barrierLevel = -1;
+
+		String withoutComments = COMMENT_LINE.matcher(script).replaceAll("");
+		for (String cql : StringUtils.delimitedListToStringArray(withoutComments, ";")) {
+			String statementText = cql.trim();
+			if (!StringUtils.hasText(statementText)) {
+				continue; // an empty String after the last ';'
+			}
+			ScriptStatement statement = new ScriptStatement(statementText + ";");
+			int level;
+			Matcher data = DATA_STATEMENT.matcher(statementText);
+			if (data.find()) {
+				boolean insert = data.group(1).toUpperCase(Locale.ROOT).startsWith("INSERT");
+				// Without the keyspace: the same table may be referred with and without it
+				String table = objectName(data.group(2));
+				level = Math.max(barrierLevel + 1,
+						(insert ? nonInsertWriteLevels : writeLevels).getOrDefault(table, -1) + 1);
+				writeLevels.merge(table, level, Math::max);
+				if (!insert) {
+					nonInsertWriteLevels.merge(table, level, Math::max);
+				}
+			}
+			else {
+				// A barrier is the only statement on its level, the following statements go after it
+				statement.schema = SCHEMA_STATEMENT.matcher(statementText).find();
+				level = levels.size();
+				barrierLevel = level;
+			}
+			if (level == levels.size()) {
+				levels.add(new ArrayList<>());
+			}
+			levels.get(level).add(statement);
+		}
+		return levels;
+	}
+
+	private static String objectName(String qualifiedName) {
+		String name = qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+		return StringUtils.trimTrailingCharacter(StringUtils.trimLeadingCharacter(name, '"'), '"')
+				.toLowerCase(Locale.ROOT);
+	}
+
+	static final class ScriptStatement {
+
+		private final String cql;
+
+		private boolean schema;
+
+		ScriptStatement(String cql) {
+			this.cql = cql;
+		}
+
+		String getCql() {
+			return this.cql;
+		}
+
+		boolean isSchema() {
+			return this.schema;
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+class AimdConcurrencyLimiterTests {
+
+	@Test
+	void testWritesOverLimitWaitForPermit() {
+		AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(2, 1, 10, Duration.ofMinutes(1), 0.5);
+		AtomicInteger subscribed = new AtomicInteger();
+		MonoProcessor<String> first = MonoProcessor.create();
+		MonoProcessor<String> second = MonoProcessor.create();
+		MonoProcessor<String> third = MonoProcessor.create();
+
+		limiter.limit(first.doOnSubscribe(s -> subscribed.incrementAndGet())).subscribe();
+		limiter.limit(second.doOnSubscribe(s -> subscribed.incrementAndGet())).subscribe();
+		Disposable thirdWrite = limiter.limit(third.doOnSubscribe(s -> subscribed.incrementAndGet())).subscribe();
+
+		assertThat(subscribed.get()).isEqualTo(2);
+		assertThat(limiter.getInFlight()).isEqualTo(2);
+
+		first.onNext("done");
+
+		assertThat(subscribed.get()).isEqualTo(3);
+		assertThat(limiter.getLimit()).isEqualTo(3);
+
+		thirdWrite.dispose();
+		second.onNext("done");
+
+		assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	void testLimitDecreasedOnTimeoutAndSlowWrite() {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(8, 2, 10, Duration.ofMillis(50), 0.5);
+		limiter.bindTo(meterRegistry);
+
+		StepVerifier.create(limiter.limit(Mono.error(new DriverTimeoutException("Query timed out"))))
+				.expectError(DriverTimeoutException.class)
+				.verify();
+
+		assertThat(limiter.getLimit()).isEqualTo(4);
+
+		StepVerifier.create(limiter.limit(Mono.delay(Duration.ofMillis(100))))
+				.expectNextCount(1)
+				.verifyComplete();
+
+		assertThat(limiter.getLimit()).isEqualTo(2);
+
+		StepVerifier.create(limiter.limit(Mono.error(new DriverTimeoutException("Query timed out"))))
+				.expectError(DriverTimeoutException.class)
+				.verify();
+
+		assertThat(meterRegistry.get(AimdConcurrencyLimiter.LIMIT_METER_NAME).gauge().value()).isEqualTo(2);
+		assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	void testIngestWriterLimitsEveryStatement() {
+		AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(1, 1, 1, Duration.ofMinutes(1), 0.5);
+		CqlSession session = mock(CqlSession.class);
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		BoundStatement boundStatement = mock(BoundStatement.class);
+		AsyncResultSet resultSet = mock(AsyncResultSet.class);
+		when(session.prepareAsync(anyString())).thenReturn(CompletableFuture.completedFuture(preparedStatement));
+		when(preparedStatement.bind(any())).thenReturn(boundStatement);
+		when(boundStatement.setIdempotent(anyBoolean())).thenReturn(boundStatement);
+		when(resultSet.currentPage()).thenReturn(Collections.emptyList());
+		List<CompletableFuture<AsyncResultSet>> executions = new CopyOnWriteArrayList<>();
+		when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+			CompletableFuture<AsyncResultSet> execution = new CompletableFuture<>();
+			executions.add(execution);
+			return execution;
+		});
+
+		CassandraIngestWriter ingestWriter =
+				new CassandraIngestWriter(() -> session, "insert into book (isbn) values (?)", IngestMode.async,
+						1, 4, 1, null);
+		ingestWriter.setConcurrencyLimiter(limiter);
+
+		StepVerifier.create(ingestWriter.write(Arrays.asList(Collections.singletonList("1"),
+				Collections.singletonList("2"), Collections.singletonList("3"))))
+				.then(() -> {
+					// A single permit for the message would let all the 'max-in-flight' statements through
+					assertThat(executions).hasSize(1);
+					executions.get(0).complete(resultSet);
+					assertThat(executions).hasSize(2);
+					executions.get(1).complete(resultSet);
+					assertThat(executions).hasSize(3);
+					executions.get(2).complete(resultSet);
+				})
+				.assertNext(writeResult -> assertThat(writeResult.getExecutionInfo()).hasSize(3))
+				.verifyComplete();
+
+		assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+
+}
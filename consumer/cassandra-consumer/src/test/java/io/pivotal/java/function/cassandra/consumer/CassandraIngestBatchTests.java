@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.cassandra.core.WriteResult;
+import org.springframework.integration.support.json.Jackson2JsonObjectMapper;
+import org.springframework.test.context.TestPropertySource;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivotal.java.function.cassandra.consumer.domain.Book;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+@DisabledOnOs(OS.WINDOWS)
+@TestPropertySource(properties = {
+		"cassandra.cluster.init-script=init-db.cql",
+		"cassandra.ingest-query=" +
+				"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)",
+		"cassandra.ingest-mode=batch",
+		"cassandra.batch-size=2",
+		"cassandra.consistency-level=ONE" })
+class CassandraIngestBatchTests extends CassandraConsumerApplicationTests {
+
+	@Test
+	void testIngestQuery(@Autowired ObjectMapper objectMapper) throws Exception {
+		List<Book> books = getBookList(5);
+		List<Book> payload = new ArrayList<>(books);
+		for (int pages = 1; pages <= 3; pages++) {
+			Book book = new Book(books.get(0).getIsbn(), "Unlogged Batch", "Cassandra Guru");
+			book.setPages(pages);
+			payload.add(book);
+		}
+
+		Jackson2JsonObjectMapper mapper = new Jackson2JsonObjectMapper(objectMapper);
+
+		Mono<? extends WriteResult> result =
+				this.cassandraConsumer.apply(mapper.toJson(payload));
+
+		StepVerifier.create(result)
+				.assertNext(writeResult -> {
+					assertThat(writeResult.wasApplied()).isTrue();
+					// 4 single-partition statements and 2 batches for the partition with 4 rows
+					assertThat(writeResult.getExecutionInfo()).hasSize(6);
+				})
+				.then(() ->
+						assertThat(this.cassandraTemplate.query(Book.class)
+								.count())
+								.isEqualTo(5))
+				.verifyComplete();
+	}
+
+	@Test
+	void testRowsWithoutRoutingKeyAreNotBatched() {
+		CqlSession session = mock(CqlSession.class);
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		BoundStatement boundStatement = mock(BoundStatement.class);
+		AsyncResultSet resultSet = mock(AsyncResultSet.class);
+		when(session.prepareAsync(anyString())).thenReturn(CompletableFuture.completedFuture(preparedStatement));
+		when(preparedStatement.bind(any())).thenReturn(boundStatement);
+		when(boundStatement.setIdempotent(anyBoolean())).thenReturn(boundStatement);
+		when(resultSet.currentPage()).thenReturn(Collections.emptyList());
+		List<Statement<?>> executed = new CopyOnWriteArrayList<>();
+		when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+			executed.add(invocation.getArgument(0));
+			return CompletableFuture.completedFuture(resultSet);
+		});
+
+		CassandraIngestWriter ingestWriter =
+				new CassandraIngestWriter(() -> session, "insert into book (isbn) values (?)", IngestMode.batch,
+						10, 4, 1, null);
+
+		StepVerifier.create(ingestWriter.write(Arrays.asList(Collections.singletonList("1"),
+				Collections.singletonList("2"), Collections.singletonList("3"))))
+				.expectNextCount(1)
+				.verifyComplete();
+
+		// No routing key: the rows may belong to different partitions
+		assertThat(executed).hasSize(3).containsOnly(boundStatement);
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import org.springframework.data.cassandra.core.WriteResult;
+import org.springframework.test.context.TestPropertySource;
+
+import io.pivotal.java.function.cassandra.consumer.domain.Book;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+@DisabledOnOs(OS.WINDOWS)
+@TestPropertySource(properties = {
+		"cassandra.cluster.init-script=init-db.cql",
+		"cassandra.ingest-query=" +
+				"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)" })
+class CassandraIngestJsonStreamingTests extends CassandraConsumerApplicationTests {
+
+	@Test
+	void testByteArrayWithUnmappedProperties() {
+		UUID isbn = UUID.randomUUID();
+		String json =
+				"[{\"isbn\":\"" + isbn + "\",\"title\":\"Streaming\",\"reviews\":[{\"stars\":5,\"text\":\"ok\"}]," +
+						"\"author\":\"Jackson\",\"pages\":100,\"publisher\":{\"name\":\"n\",\"address\":{}}," +
+						"\"saleDate\":\"2020-03-01\",\"inStock\":true,\"tags\":null}," +
+						"{\"isbn\":\"" + UUID.randomUUID() + "\",\"title\":\"Partial\"}]";
+
+		Mono<? extends WriteResult> result = this.cassandraConsumer.apply(json.getBytes(StandardCharsets.UTF_8));
+
+		StepVerifier.create(result)
+				.expectNextCount(1)
+				.then(() -> {
+					assertThat(this.cassandraTemplate.query(Book.class).count()).isEqualTo(2);
+					Book book = this.cassandraTemplate.selectOneById(isbn, Book.class);
+					assertThat(book.getAuthor()).isEqualTo("Jackson");
+					assertThat(book.getPages()).isEqualTo(100);
+					assertThat(book.getSaleDate()).hasToString("2020-03-01");
+					assertThat(book.isInStock()).isTrue();
+				})
+				.verifyComplete();
+	}
+
+	@Test
+	void testSingleObject() {
+		String json = "{\"isbn\":\"" + UUID.randomUUID() + "\",\"title\":\"Single\",\"pages\":1}";
+
+		Mono<? extends WriteResult> result = this.cassandraConsumer.apply(json);
+
+		StepVerifier.create(result)
+				.expectNextCount(1)
+				.then(() -> assertThat(this.cassandraTemplate.query(Book.class).count()).isEqualTo(1))
+				.verifyComplete();
+	}
+
+}
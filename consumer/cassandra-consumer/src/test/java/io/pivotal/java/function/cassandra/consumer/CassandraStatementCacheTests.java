@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.TestPropertySource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.java.function.cassandra.consumer.domain.Book;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+@DisabledOnOs(OS.WINDOWS)
+@TestPropertySource(properties = {
+		"cassandra.cluster.init-script=init-db.cql",
+		"cassandra.statement-expression=" +
+				"T(com.datastax.oss.driver.api.core.cql.SimpleStatement)" +
+				".newInstance('insert into book (isbn, title, author, pages) values (?, ?, ?, ?)', " +
+				"payload.isbn, payload.title, payload.author, payload.pages)",
+		"cassandra.statement-cache-size=10" })
+class CassandraStatementCacheTests extends CassandraConsumerApplicationTests {
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void testStatementPreparedOnce() {
+		StepVerifier.create(Flux.fromIterable(getBookList(3)).concatMap(this.cassandraConsumer))
+				.expectNextCount(3)
+				.verifyComplete();
+
+		assertThat(this.cassandraTemplate.query(Book.class).count()).isEqualTo(3);
+		assertThat(this.meterRegistry.get(PreparedStatementCache.GETS_METER_NAME).tag("result", "miss")
+				.counter().count()).isEqualTo(1);
+		assertThat(this.meterRegistry.get(PreparedStatementCache.GETS_METER_NAME).tag("result", "hit")
+				.counter().count()).isEqualTo(2);
+		assertThat(this.meterRegistry.get(PreparedStatementCache.SIZE_METER_NAME).gauge().value()).isEqualTo(1);
+	}
+
+	@TestConfiguration
+	static class MeterRegistryConfiguration {
+
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.support.json.Jackson2JsonObjectMapper;
+import org.springframework.test.context.TestPropertySource;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.java.function.cassandra.consumer.domain.Book;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+@DisabledOnOs(OS.WINDOWS)
+@TestPropertySource(properties = {
+		"cassandra.cluster.init-script=init-db.cql",
+		"cassandra.ingest-query=" +
+				"insert into book (isbn, title, author, pages, saleDate, inStock) values (?, ?, ?, ?, ?, ?)",
+		"cassandra.consistency-level=ONE" })
+class CassandraWriteMetricsTests extends CassandraConsumerApplicationTests {
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void testIngestMetrics(@Autowired ObjectMapper objectMapper) throws Exception {
+		List<Book> books = getBookList(5);
+
+		Jackson2JsonObjectMapper mapper = new Jackson2JsonObjectMapper(objectMapper);
+
+		StepVerifier.create(this.cassandraConsumer.apply(mapper.toJson(books)))
+				.expectNextCount(1)
+				.verifyComplete();
+
+		assertThat(this.meterRegistry.get(CassandraWriteMetrics.TRANSFORM_METER_NAME)
+				.tag("keyspace", CASSANDRA_KEYSPACE)
+				.tag("table", "book")
+				.timer().count()).isEqualTo(1);
+		assertThat(this.meterRegistry.get(CassandraWriteMetrics.ROWS_METER_NAME)
+				.tag("table", "book")
+				.summary().totalAmount()).isEqualTo(5);
+		assertThat(this.meterRegistry.get(CassandraWriteMetrics.WRITE_METER_NAME)
+				.tag("table", "book")
+				.tag("consistency", "ONE")
+				.timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void testWriteErrorsByExceptionType() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CassandraWriteMetrics metrics =
+				CassandraWriteMetrics.forQuery("UPDATE library.book SET title = ? WHERE isbn = ?", "test", registry,
+						DefaultConsistencyLevel.QUORUM);
+
+		StepVerifier.create(metrics.timeWrite(Mono.error(new DriverTimeoutException("Query timed out"))))
+				.verifyError(DriverTimeoutException.class);
+
+		assertThat(registry.get(CassandraWriteMetrics.WRITE_ERRORS_METER_NAME)
+				.tag("keyspace", "library")
+				.tag("table", "book")
+				.tag("exception", "DriverTimeoutException")
+				.counter().count()).isEqualTo(1);
+		assertThat(registry.get(CassandraWriteMetrics.WRITE_METER_NAME)
+				.tag("consistency", "QUORUM")
+				.timer().count()).isZero();
+	}
+
+	@Test
+	void testIngestWriterTimesEachStatementAfterPermit() {
+		CqlSession session = mock(CqlSession.class);
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		BoundStatement boundStatement = mock(BoundStatement.class);
+		AsyncResultSet resultSet = mock(AsyncResultSet.class);
+		when(session.prepareAsync(anyString())).thenReturn(CompletableFuture.completedFuture(preparedStatement));
+		when(preparedStatement.bind(any())).thenReturn(boundStatement);
+		when(boundStatement.setIdempotent(anyBoolean())).thenReturn(boundStatement);
+		when(resultSet.currentPage()).thenReturn(Collections.emptyList());
+		when(session.executeAsync(any(Statement.class)))
+				.thenAnswer(invocation -> CompletableFuture.completedFuture(resultSet));
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CassandraWriteMetrics metrics =
+				CassandraWriteMetrics.forQuery("insert into book (isbn) values (?)", "test", registry, null);
+
+		CassandraIngestWriter ingestWriter =
+				new CassandraIngestWriter(() -> session, "insert into book (isbn) values (?)", IngestMode.async,
+						1, 4, 1, null);
+		ingestWriter.setConcurrencyLimiter(new AimdConcurrencyLimiter(1, 1, 1, Duration.ofMinutes(1), 0.5));
+		ingestWriter.setWriteMetrics(metrics);
+
+		StepVerifier.create(ingestWriter.write(Arrays.asList(Collections.singletonList("1"),
+				Collections.singletonList("2"), Collections.singletonList("3"))))
+				.expectNextCount(1)
+				.verifyComplete();
+
+		assertThat(registry.get(CassandraWriteMetrics.WRITE_METER_NAME)
+				.tag("table", "book")
+				.timer().count()).isEqualTo(3);
+	}
+
+	@TestConfiguration
+	static class MeterRegistryConfiguration {
+
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import com.datastax.oss.driver.api.core.type.DataTypes;
+
+class ColumnValueCoercionTests {
+
+	@Test
+	void testUuidValidation() {
+		String uuid = UUID.randomUUID().toString();
+		assertThat(ColumnValueCoercion.isUuid(uuid)).isTrue();
+		assertThat(ColumnValueCoercion.isUuid(uuid.toUpperCase())).isTrue();
+		assertThat(ColumnValueCoercion.isUuid(uuid.replace('-', 'a'))).isFalse();
+		assertThat(ColumnValueCoercion.isUuid(uuid.substring(1) + "g")).isFalse();
+		assertThat(ColumnValueCoercion.isUuid(uuid.substring(1))).isFalse();
+	}
+
+	@Test
+	void testIsoParsing() {
+		assertThat(ColumnValueCoercion.parseLocalDate("2020-03-01")).isEqualTo(LocalDate.of(2020, 3, 1));
+		assertThat(ColumnValueCoercion.parseLocalDate("2020-13-01")).isNull();
+		assertThat(ColumnValueCoercion.parseLocalDate("2020-03-01 is a date")).isNull();
+		assertThat(ColumnValueCoercion.parseLocalDate("Spring Cloud Data Flow Guide")).isNull();
+
+		Instant expected = Instant.parse("2020-03-01T10:15:30Z");
+		assertThat(ColumnValueCoercion.parseInstant("2020-03-01T10:15:30Z")).isEqualTo(expected);
+		assertThat(ColumnValueCoercion.parseInstant("2020-03-01T10:15:30")).isEqualTo(expected);
+		assertThat(ColumnValueCoercion.parseInstant("2020-03-01T12:15:30.000+0200")).isEqualTo(expected);
+		assertThat(ColumnValueCoercion.parseInstant("2020-03-01T07:15:30-03:00")).isEqualTo(expected);
+		assertThat(ColumnValueCoercion.parseInstant("2020-03-01T12:15:30+02")).isEqualTo(expected);
+		assertThat(ColumnValueCoercion.parseInstant("2020-03-01T25:15:30")).isNull();
+	}
+
+	@Test
+	void testCoercionByType() {
+		String uuid = UUID.randomUUID().toString();
+		assertThat(ColumnValueCoercion.forType(DataTypes.UUID).apply(uuid)).isEqualTo(UUID.fromString(uuid));
+		assertThat(ColumnValueCoercion.forType(DataTypes.TEXT).apply(uuid)).isSameAs(uuid);
+		assertThat(ColumnValueCoercion.forType(DataTypes.TEXT).apply("2020-03-01")).isEqualTo("2020-03-01");
+		assertThat(ColumnValueCoercion.forType(DataTypes.DATE).apply("2020-03-01"))
+				.isEqualTo(LocalDate.of(2020, 3, 1));
+		assertThat(ColumnValueCoercion.forType(DataTypes.TIMESTAMP).apply(0))
+				.isEqualTo(Instant.EPOCH);
+		assertThat(ColumnValueCoercion.forType(DataTypes.TIME).apply("10:15:30"))
+				.isEqualTo(LocalTime.of(10, 15, 30));
+		assertThat(ColumnValueCoercion.forType(DataTypes.BIGINT).apply(1)).isEqualTo(1L);
+		assertThat(ColumnValueCoercion.forType(DataTypes.INT).apply(1)).isEqualTo(1);
+		assertThat(ColumnValueCoercion.forType(DataTypes.FLOAT).apply(1.5d)).isEqualTo(1.5f);
+	}
+
+	@Test
+	void testNumbersWhichDoNotFitAreLeftAsIs() {
+		assertThat(ColumnValueCoercion.forType(DataTypes.INT).apply(3000000000L)).isEqualTo(3000000000L);
+		assertThat(ColumnValueCoercion.forType(DataTypes.INT).apply(1.9d)).isEqualTo(1.9d);
+		assertThat(ColumnValueCoercion.forType(DataTypes.INT).apply(2.0d)).isEqualTo(2);
+		assertThat(ColumnValueCoercion.forType(DataTypes.SMALLINT).apply(40000)).isEqualTo(40000);
+		assertThat(ColumnValueCoercion.forType(DataTypes.TINYINT).apply(-128)).isEqualTo((byte) -128);
+		assertThat(ColumnValueCoercion.forType(DataTypes.BIGINT).apply(new BigInteger("9223372036854775808")))
+				.isEqualTo(new BigInteger("9223372036854775808"));
+		assertThat(ColumnValueCoercion.forType(DataTypes.VARINT).apply(1.5d)).isEqualTo(1.5d);
+		assertThat(ColumnValueCoercion.forType(DataTypes.VARINT).apply(new BigDecimal("1e20")))
+				.isEqualTo(new BigInteger("100000000000000000000"));
+		assertThat(ColumnValueCoercion.forType(DataTypes.FLOAT).apply(1e300d)).isEqualTo(1e300d);
+		assertThat(ColumnValueCoercion.forType(DataTypes.TIMESTAMP).apply(1.5d)).isEqualTo(1.5d);
+	}
+
+	@Test
+	void testGuess() {
+		String uuid = UUID.randomUUID().toString();
+		assertThat(ColumnValueCoercion.guess(uuid)).isEqualTo(UUID.fromString(uuid));
+		assertThat(ColumnValueCoercion.guess("2020-03-01")).isEqualTo(LocalDate.of(2020, 3, 1));
+		assertThat(ColumnValueCoercion.guess("text")).isEqualTo("text");
+		assertThat(ColumnValueCoercion.guess(42)).isEqualTo(42);
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class IdempotentWriteRetryTests {
+
+	@Test
+	void testIdempotence() {
+		assertThat(IdempotentWriteRetry.isIdempotent(
+				"insert into book (isbn, title) values (?, ?)")).isTrue();
+		assertThat(IdempotentWriteRetry.isIdempotent(
+				"update book set title = :title, pages = :pages where isbn = :isbn")).isTrue();
+		assertThat(IdempotentWriteRetry.isIdempotent(
+				"insert into book (isbn, title) values (?, ?) if not exists")).isFalse();
+		assertThat(IdempotentWriteRetry.isIdempotent(
+				"update book set title = ? where isbn = ? IF title = 'old'")).isFalse();
+		assertThat(IdempotentWriteRetry.isIdempotent(
+				"update stats set views = views + 1 where id = ?")).isFalse();
+		assertThat(IdempotentWriteRetry.isIdempotent(
+				"update book set tags = ['new'] + tags where isbn = ?")).isFalse();
+	}
+
+	@Test
+	void testRetryOnTimeout() {
+		IdempotentWriteRetry retry = new IdempotentWriteRetry(3, Duration.ofMillis(1), Duration.ofMillis(10));
+		AtomicInteger attempts = new AtomicInteger();
+		Mono<String> write = Mono.defer(() ->
+				attempts.incrementAndGet() < 3
+						? Mono.error(new DriverTimeoutException("Query timed out"))
+						: Mono.just("written"));
+
+		StepVerifier.create(retry.apply(write))
+				.expectNext("written")
+				.verifyComplete();
+
+		assertThat(attempts.get()).isEqualTo(3);
+	}
+
+	@Test
+	void testNoRetryOnOtherErrorsAndAfterMaxRetries() {
+		IdempotentWriteRetry retry = new IdempotentWriteRetry(2, Duration.ZERO, Duration.ZERO);
+		AtomicInteger attempts = new AtomicInteger();
+
+		StepVerifier.create(retry.apply(Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.error(new IllegalStateException("Invalid query"));
+		})))
+				.expectError(IllegalStateException.class)
+				.verify();
+
+		assertThat(attempts.get()).isEqualTo(1);
+
+		attempts.set(0);
+		StepVerifier.create(retry.apply(Mono.defer(() -> {
+			attempts.incrementAndGet();
+			return Mono.error(new DriverTimeoutException("Query timed out"));
+		})))
+				.expectError(DriverTimeoutException.class)
+				.verify();
+
+		assertThat(attempts.get()).isEqualTo(3);
+	}
+
+	@Test
+	void testIngestWriterRetriesOnlyFailedStatement() {
+		CqlSession session = mock(CqlSession.class);
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		BoundStatement first = mock(BoundStatement.class);
+		BoundStatement second = mock(BoundStatement.class);
+		AsyncResultSet resultSet = mock(AsyncResultSet.class);
+		when(session.prepareAsync(anyString())).thenReturn(CompletableFuture.completedFuture(preparedStatement));
+		when(preparedStatement.bind(any())).thenReturn(first, second);
+		when(first.setIdempotent(anyBoolean())).thenReturn(first);
+		when(second.setIdempotent(anyBoolean())).thenReturn(second);
+		when(resultSet.currentPage()).thenReturn(Collections.emptyList());
+		AtomicInteger firstAttempts = new AtomicInteger();
+		AtomicInteger secondAttempts = new AtomicInteger();
+		when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+			if (invocation.getArgument(0) == first) {
+				firstAttempts.incrementAndGet();
+				return CompletableFuture.completedFuture(resultSet);
+			}
+			CompletableFuture<AsyncResultSet> execution = new CompletableFuture<>();
+			if (secondAttempts.incrementAndGet() == 1) {
+				execution.completeExceptionally(new DriverTimeoutException("Query timed out"));
+			}
+			else {
+				execution.complete(resultSet);
+			}
+			return execution;
+		});
+
+		CassandraIngestWriter ingestWriter =
+				new CassandraIngestWriter(() -> session, "insert into book (isbn) values (?)", IngestMode.async,
+						1, 1, 1, null);
+		ingestWriter.setRetry(new IdempotentWriteRetry(1, Duration.ZERO, Duration.ZERO));
+
+		StepVerifier.create(ingestWriter.write(Arrays.asList(Collections.singletonList("1"),
+				Collections.singletonList("2"))))
+				.assertNext(writeResult -> assertThat(writeResult.getExecutionInfo()).hasSize(2))
+				.verifyComplete();
+
+		assertThat(firstAttempts.get()).isEqualTo(1);
+		assertThat(secondAttempts.get()).isEqualTo(2);
+	}
+
+}
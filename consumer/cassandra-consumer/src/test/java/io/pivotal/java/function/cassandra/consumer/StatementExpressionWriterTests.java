@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.messaging.support.GenericMessage;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import reactor.test.StepVerifier;
+
+class StatementExpressionWriterTests {
+
+	@Test
+	void testMissingNamedValueIsNotBound() {
+		PreparedStatement preparedStatement = preparedStatement("isbn", "title");
+
+		SimpleStatement statement =
+				SimpleStatement.builder("insert into book (isbn, title) values (:isbn, :title)")
+						.addNamedValue("isbn", "123")
+						.build();
+
+		assertThat(StatementExpressionWriter.bind(preparedStatement, statement)).isNull();
+		verify(preparedStatement, never()).bind(any());
+	}
+
+	@Test
+	void testStatementOptionsAreCopied() {
+		PreparedStatement preparedStatement = preparedStatement("isbn", "title");
+		BoundStatement boundStatement = mock(BoundStatement.class, RETURNS_SELF);
+		when(preparedStatement.bind(any(), any())).thenReturn(boundStatement);
+
+		SimpleStatement statement =
+				SimpleStatement.builder("insert into book (isbn, title) values (:isbn, :title)")
+						.addNamedValue("title", "Spring")
+						.addNamedValue("isbn", "123")
+						.setConsistencyLevel(DefaultConsistencyLevel.QUORUM)
+						.setPageSize(100)
+						.setExecutionProfileName("slow")
+						.setRoutingKeyspace("library")
+						.build()
+						.setTracing(true);
+
+		assertThat(StatementExpressionWriter.bind(preparedStatement, statement)).isSameAs(boundStatement);
+		verify(preparedStatement).bind("123", "Spring");
+		verify(boundStatement).setConsistencyLevel(DefaultConsistencyLevel.QUORUM);
+		verify(boundStatement).setPageSize(100);
+		verify(boundStatement).setExecutionProfileName("slow");
+		verify(boundStatement).setRoutingKeyspace(CqlIdentifier.fromCql("library"));
+		verify(boundStatement).setTracing(true);
+	}
+
+	@Test
+	void testEachRetryAttemptIsLimited() {
+		CqlSession session = mock(CqlSession.class);
+		// The statement with values is executed as evaluated when the values are not bound
+		SimpleStatement statement =
+				SimpleStatement.newInstance("insert into book (isbn) values (?)", "123").setIdempotent(true);
+		AsyncResultSet resultSet = mock(AsyncResultSet.class);
+		when(resultSet.currentPage()).thenReturn(Collections.emptyList());
+		AtomicInteger attempts = new AtomicInteger();
+		when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+			CompletableFuture<AsyncResultSet> execution = new CompletableFuture<>();
+			if (attempts.incrementAndGet() == 1) {
+				execution.completeExceptionally(new DriverTimeoutException("Query timed out"));
+			}
+			else {
+				execution.complete(resultSet);
+			}
+			return execution;
+		});
+		AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 1, 10, Duration.ofMinutes(1), 0.5);
+
+		StatementExpressionWriter statementWriter =
+				new StatementExpressionWriter(() -> session, new SpelExpressionParser().parseExpression("payload"),
+						new StandardEvaluationContext(), null, false, null,
+						new IdempotentWriteRetry(1, Duration.ZERO, Duration.ZERO));
+		statementWriter.setConcurrencyLimiter(limiter);
+
+		StepVerifier.create(statementWriter.write(new GenericMessage<>(statement)))
+				.expectNextCount(1)
+				.verifyComplete();
+
+		assertThat(attempts.get()).isEqualTo(2);
+		// Halved by the timed out attempt, then increased by the successful one
+		assertThat(limiter.getLimit()).isEqualTo(3);
+		assertThat(limiter.getInFlight()).isEqualTo(0);
+	}
+
+	private static PreparedStatement preparedStatement(String... variables) {
+		ColumnDefinitions variableDefinitions = mock(ColumnDefinitions.class);
+		when(variableDefinitions.size()).thenReturn(variables.length);
+		for (int i = 0; i < variables.length; i++) {
+			ColumnDefinition variable = mock(ColumnDefinition.class);
+			when(variable.getName()).thenReturn(CqlIdentifier.fromCql(variables[i]));
+			when(variableDefinitions.get(i)).thenReturn(variable);
+		}
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		when(preparedStatement.getVariableDefinitions()).thenReturn(variableDefinitions);
+		return preparedStatement;
+	}
+
+}
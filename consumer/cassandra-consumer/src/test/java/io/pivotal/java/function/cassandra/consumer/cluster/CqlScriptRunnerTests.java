@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.cassandra.consumer.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class CqlScriptRunnerTests {
+
+	@Test
+	void testSchemaStatementsAreSequential() {
+		List<List<String>> levels = plan(
+				"-- recreate the table\n" +
+						"DROP TABLE IF EXISTS book;\n" +
+						"CREATE TYPE IF NOT EXISTS address (street text, city text);\n" +
+						"CREATE TABLE book (isbn uuid PRIMARY KEY, title text);\n" +
+						"CREATE TABLE library (id uuid PRIMARY KEY, location frozen<address>);\n" +
+						"CREATE INDEX ON book (title);");
+
+		assertThat(levels).containsExactly(
+				Collections.singletonList("DROP TABLE IF EXISTS book;"),
+				Collections.singletonList("CREATE TYPE IF NOT EXISTS address (street text, city text);"),
+				Collections.singletonList("CREATE TABLE book (isbn uuid PRIMARY KEY, title text);"),
+				Collections.singletonList("CREATE TABLE library (id uuid PRIMARY KEY, location frozen<address>);"),
+				Collections.singletonList("CREATE INDEX ON book (title);"));
+	}
+
+	@Test
+	void testKeyspaceQualifiedStatementsAreOrdered() {
+		List<List<String>> levels = plan(
+				"CREATE TABLE ks.book (isbn uuid PRIMARY KEY, title text);\n" +
+						"INSERT INTO ks.book (isbn, title) VALUES (uuid(), 'Spring');\n" +
+						"UPDATE book SET title = 'Reactor' WHERE isbn = 5d9c8f1c-6b6a-4c8f-9d7e-7c3d0f1b2a11;\n" +
+						"DROP KEYSPACE ks;");
+
+		assertThat(levels).hasSize(4);
+		assertThat(levels).allSatisfy(level -> assertThat(level).hasSize(1));
+		assertThat(levels.get(3)).containsExactly("DROP KEYSPACE ks;");
+	}
+
+	@Test
+	void testIndependentInsertsShareLevel() {
+		List<List<String>> levels = plan(
+				"CREATE TABLE book (isbn uuid PRIMARY KEY, title text);\n" +
+						"INSERT INTO book (isbn, title) VALUES (uuid(), 'Spring');\n" +
+						"INSERT INTO book (isbn, title) VALUES (uuid(), 'Cassandra');\n" +
+						"UPDATE book SET title = 'Reactor' WHERE isbn = 5d9c8f1c-6b6a-4c8f-9d7e-7c3d0f1b2a11;\n" +
+						"INSERT INTO book (isbn, title) VALUES (uuid(), 'Micrometer');");
+
+		assertThat(levels).hasSize(4);
+		assertThat(levels.get(1)).hasSize(2);
+		assertThat(levels.get(2)).hasSize(1);
+		assertThat(levels.get(2).get(0)).startsWith("UPDATE");
+		assertThat(levels.get(3)).hasSize(1);
+		assertThat(levels.get(3).get(0)).startsWith("INSERT");
+	}
+
+	@Test
+	void testBarrier() {
+		List<List<String>> levels = plan(
+				"CREATE KEYSPACE IF NOT EXISTS library WITH replication = " +
+						"{'class': 'SimpleStrategy', 'replication_factor': 1};\n" +
+						"USE library;\n" +
+						"CREATE TABLE book (isbn uuid PRIMARY KEY);\n" +
+						"CREATE TABLE author (name text PRIMARY KEY);");
+
+		assertThat(levels).hasSize(4);
+		assertThat(levels.get(1)).containsExactly("USE library;");
+		assertThat(levels.get(3)).containsExactly("CREATE TABLE author (name text PRIMARY KEY);");
+	}
+
+	private static List<List<String>> plan(String script) {
+		return CqlScriptRunner.plan(script)
+				.stream()
+				.map(level ->
+						level.stream()
+								.map(CqlScriptRunner.ScriptStatement::getCql)
+								.collect(Collectors.toList()))
+				.collect(Collectors.toList());
+	}
+
+}
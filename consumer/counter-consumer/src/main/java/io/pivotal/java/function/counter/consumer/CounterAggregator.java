@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.Assert;
+
+/**
+ * Accumulates the counter increments locally per {@link MeterKey} and flushes the accumulated
+ * amounts to the meter registries periodically and on destroy.
+ * <p>
+ * The amounts are added to striped {@link DoubleAdder} cells, so concurrent increments of a hot
+ * counter neither contend on a single variable nor touch the registries.
+ * A cell is never reset: the flush increments the counters by the difference from the sum flushed
+ * last time, so no increment concurrent with the flush is lost.
+ * The cells not incremented for the idle timeout are removed by {@link #evictIdle(long)}.
+ * <p>
+ * Thread-safe.
+ */
+final class CounterAggregator implements InitializingBean, DisposableBean {
+
+	private final CounterHandleCache counterHandleCache;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Duration flushInterval;
+
+	private final Map<MeterKey, Cell> cells = new ConcurrentHashMap<>();
+
+	/**
+	 * The cells evicted since the last flush; guarded by the flush monitor.
+	 */
+	private final List<Cell> evicted = new ArrayList<>();
+
+	private volatile ScheduledFuture<?> flushTask;
+
+	CounterAggregator(CounterHandleCache counterHandleCache, TaskScheduler taskScheduler, Duration flushInterval) {
+		Assert.isTrue(!flushInterval.isNegative() && !flushInterval.isZero(), "'flushInterval' must be positive");
+		this.counterHandleCache = counterHandleCache;
+		this.taskScheduler = taskScheduler;
+		this.flushInterval = flushInterval;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		this.flushTask = this.taskScheduler.scheduleAtFixedRate(this::flush, this.flushInterval);
+	}
+
+	void add(MeterKey key, double amount) {
+		Cell cell = this.cells.get(key);
+		if (cell == null) {
+			cell = this.cells.computeIfAbsent(key.copy(), Cell::new);
+		}
+		cell.adder.add(amount);
+		cell.touch();
+	}
+
+	synchronized void flush() {
+		if (!this.evicted.isEmpty()) {
+			// Pick up the increments racing with the eviction
+			this.evicted.forEach(this::flush);
+			this.evicted.clear();
+		}
+		this.cells.values().forEach(this::flush);
+	}
+
+	/**
+	 * Remove the cells not incremented since the cutoff, flushing them for the last time.
+	 * An increment racing with the removal goes into the removed cell and is flushed by the next
+	 * {@link #flush()}; it is lost only if its thread stalls between looking up and incrementing the cell
+	 * for longer than the flush interval.
+	 * @param cutoff the {@link System#currentTimeMillis()} before which a cell is idle.
+	 * @return the number of removed cells.
+	 */
+	synchronized int evictIdle(long cutoff) {
+		int evicted = 0;
+		for (Cell cell : this.cells.values()) {
+			if (cell.lastUsed < cutoff && this.cells.remove(cell.key, cell)) {
+				flush(cell);
+				this.evicted.add(cell);
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	int size() {
+		return this.cells.size();
+	}
+
+	private void flush(Cell cell) {
+		double sum = cell.adder.sum();
+		double delta = sum - cell.flushed;
+		if (delta != 0) {
+			cell.flushed = sum;
+			this.counterHandleCache.increment(cell.key, delta);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		ScheduledFuture<?> flushTask = this.flushTask;
+		if (flushTask != null) {
+			flushTask.cancel(false);
+		}
+		flush();
+	}
+
+	private static final class Cell {
+
+		private static final long TOUCH_RESOLUTION = 1000;
+
+		private final MeterKey key;
+
+		private final DoubleAdder adder = new DoubleAdder();
+
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * The sum already flushed to the registries; guarded by the flush monitor.
+		 */
+		private double flushed;
+
+		Cell(MeterKey key) {
+			this.key = key;
+		}
+
+		void touch() {
+			long now = System.currentTimeMillis();
+			if (now - this.lastUsed >= TOUCH_RESOLUTION) {
+				this.lastUsed = now;
+			}
+		}
+
+	}
+
+}
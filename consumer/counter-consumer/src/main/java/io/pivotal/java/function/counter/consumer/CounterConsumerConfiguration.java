@@ -16,23 +16,25 @@
 
 package io.pivotal.java.function.counter.consumer;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
 import java.util.stream.Collectors;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import reactor.core.publisher.Flux;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationPropertiesBinding;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -43,8 +45,8 @@ import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.Expression;
 import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.messaging.Message;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.util.CollectionUtils;
-import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
 /**
@@ -55,6 +57,8 @@ import org.springframework.util.StringUtils;
 @EnableConfigurationProperties({ CounterConsumerProperties.class })
 public class CounterConsumerConfiguration {
 
+	private static final Log LOGGER = LogFactory.getLog(CounterConsumerConfiguration.class);
+
 	@Bean
 	public Function<String, Expression> stringToSpelFunction(@Lazy EvaluationContext evaluationContext) {
 		return new StringToSpelConversionFunction(evaluationContext);
@@ -71,37 +75,89 @@ public class CounterConsumerConfiguration {
 		};
 	}
 
-	@Bean(name = "counterConsumer")
-	public Consumer<Message<?>> counterConsumer(CounterConsumerProperties properties, MeterRegistry[] meterRegistries,
-			@Qualifier(IntegrationContextUtils.INTEGRATION_EVALUATION_CONTEXT_BEAN_NAME) EvaluationContext context) {
+	@Bean
+	CounterHandleCache counterHandleCache(CounterConsumerProperties properties, MeterRegistry[] meterRegistries) {
+		// All fixed tags together are passed with every counter increment.
+		Tags fixedTags = this.toTags(properties.getTag().getFixed());
+		CounterHandleCache counterHandleCache =
+				new CounterHandleCache(meterRegistries, fixedTags, properties.getMeterCacheSize());
+		// Otherwise the counters over the cache size would never be removed
+		counterHandleCache.setTrackIdle(properties.getMeterIdleTimeout() != null);
+		return counterHandleCache;
+	}
 
-		return message -> {
+	@Bean
+	@ConditionalOnProperty(prefix = "counter", name = "aggregation-interval")
+	CounterAggregator counterAggregator(CounterConsumerProperties properties, CounterHandleCache counterHandleCache,
+			@Qualifier(IntegrationContextUtils.TASK_SCHEDULER_BEAN_NAME) TaskScheduler taskScheduler) {
 
-			String counterName = properties.getComputedNameExpression().getValue(context, message, CharSequence.class).toString();
+		return new CounterAggregator(counterHandleCache, taskScheduler, properties.getAggregationInterval());
+	}
 
-			// All fixed tags together are passed with every counter increment.
-			Tags fixedTags = this.toTags(properties.getTag().getFixed());
+	@Bean
+	@ConditionalOnProperty(prefix = "counter.tag", name = "max-values")
+	TagCardinalityGuard tagCardinalityGuard(CounterConsumerProperties properties, MeterRegistry[] meterRegistries) {
+		return new TagCardinalityGuard(meterRegistries, properties.getTag().getMaxValues());
+	}
 
-			double amount = properties.getComputedAmountExpression().getValue(context, message, double.class);
+	@Bean
+	@ConditionalOnProperty(prefix = "counter", name = "meter-idle-timeout")
+	IdleMeterEvictor idleMeterEvictor(CounterConsumerProperties properties, CounterHandleCache counterHandleCache,
+			ObjectProvider<CounterAggregator> counterAggregatorProvider,
+			ObjectProvider<TagCardinalityGuard> tagCardinalityGuardProvider, MeterRegistry[] meterRegistries,
+			@Qualifier(IntegrationContextUtils.TASK_SCHEDULER_BEAN_NAME) TaskScheduler taskScheduler) {
+
+		return new IdleMeterEvictor(counterHandleCache, counterAggregatorProvider.getIfAvailable(),
+				tagCardinalityGuardProvider.getIfAvailable(), meterRegistries, taskScheduler,
+				properties.getMeterIdleTimeout());
+	}
 
-			Map<String, List<Tag>> allGroupedTags = new HashMap<>();
-			// Tag Expressions Counter
-			if (properties.getTag().getExpression() != null) {
+	@Bean
+	MessageCounter messageCounter(CounterConsumerProperties properties, CounterHandleCache counterHandleCache,
+			ObjectProvider<CounterAggregator> counterAggregatorProvider,
+			ObjectProvider<TagCardinalityGuard> tagCardinalityGuardProvider,
+			@Qualifier(IntegrationContextUtils.INTEGRATION_EVALUATION_CONTEXT_BEAN_NAME) EvaluationContext context) {
 
-				Map<String, List<Tag>> groupedTags = properties.getTag().getExpression().entrySet().stream()
-						// maps a <name, expr> pair into [<name, expr#val_1>, ... <name, expr#val_N>] Tag array.
-						.map(namedExpression ->
-								toList(namedExpression.getValue().getValue(context, message)).stream()
-										.map(tagValue -> Tag.of(namedExpression.getKey(), tagValue))
-										.collect(Collectors.toList())).flatMap(List::stream)
-						.collect(Collectors.groupingBy(tag -> tag.getKey(), Collectors.toList()));
-				allGroupedTags.putAll(groupedTags);
-			}
+		CounterAggregator counterAggregator = counterAggregatorProvider.getIfAvailable();
+		ObjDoubleConsumer<MeterKey> counter =
+				counterAggregator != null ? counterAggregator::add : counterHandleCache::increment;
+		TagExpander tagExpander =
+				new TagExpander(properties.getTag().getExpression(), tagCardinalityGuardProvider.getIfAvailable());
+		return new MessageCounter(properties, tagExpander, context, counter);
+	}
 
-			this.count(meterRegistries, counterName, fixedTags, allGroupedTags, amount);
+	@Bean(name = "counterConsumer")
+	@SuppressWarnings("unchecked")
+	public Consumer<Message<?>> counterConsumer(CounterConsumerProperties properties, MessageCounter messageCounter) {
+		boolean listPayload = properties.getBatch().isListPayload();
+		return message -> {
+			if (listPayload && message.getPayload() instanceof List) {
+				messageCounter.countBatchPayload((Message<? extends Iterable<?>>) message);
+			}
+			else {
+				messageCounter.count(message);
+			}
 		};
 	}
 
+	@Bean(name = "counterFluxConsumer")
+	@ConditionalOnProperty(prefix = "counter.batch", name = "flux-consumer-enabled", havingValue = "true")
+	public Consumer<Flux<Message<?>>> counterFluxConsumer(CounterConsumerProperties properties,
+			MessageCounter messageCounter) {
+
+		CounterConsumerProperties.Batch batch = properties.getBatch();
+		return messages -> messages
+				.bufferTimeout(batch.getMaxSize(), batch.getTimeout())
+				.subscribe(batchMessages -> {
+					try {
+						messageCounter.countBatch(batchMessages);
+					}
+					catch (Exception ex) {
+						LOGGER.error("Failed to count a batch of " + batchMessages.size() + " messages", ex);
+					}
+				});
+	}
+
 	/**
 	 * Converts a key/value Map into Tag(key,value) list. Filters out the empty key/value pairs.
 	 * @param keyValueMap key/value map to convert into tags.
@@ -115,61 +171,6 @@ public class CounterConsumerConfiguration {
 						.collect(Collectors.toList()));
 	}
 
-	/**
-	 * Converts the input value into an list of values. If the value is not a collection/array type the result
-	 * is a single element list. For collection/array input value the result is the list of stringifie content of
-	 * this collection.
-	 * @param value input value can be array, collection or single value.
-	 * @return Returns value list.
-	 */
-	protected List<String> toList(Object value) {
-		if (value == null) {
-			return Collections.emptyList();
-		}
-
-		if ((value instanceof Collection) || ObjectUtils.isArray(value)) {
-			Collection<?> valueCollection = (value instanceof Collection) ? (Collection<?>) value
-					: Arrays.asList(ObjectUtils.toObjectArray(value));
-
-			return valueCollection.stream()
-					.filter(v -> v != null)
-					.map(Object::toString)
-					.filter(StringUtils::hasText)
-					.collect(Collectors.toList());
-		}
-		else {
-			return Arrays.asList(value.toString());
-		}
-	}
-
-	private void count(MeterRegistry[] meterRegistries, String counterName, Tags fixedTags, Map<String, List<Tag>> groupedTags, double amount) {
-		if (!CollectionUtils.isEmpty(groupedTags)) {
-			groupedTags.values().stream().map(List::size).max(Integer::compareTo).ifPresent(
-					max -> {
-						for (int i = 0; i < max; i++) {
-							Tags currentTags = Tags.of(fixedTags);
-							for (Map.Entry<String, List<Tag>> e : groupedTags.entrySet()) {
-								currentTags = (e.getValue().size() > i) ?
-										currentTags.and(e.getValue().get(i)) :
-										currentTags.and(Tags.of(e.getKey(), ""));
-							}
-
-							// Increment the counterName increment for every configured MaterRegistry.
-							for (MeterRegistry meterRegistry : meterRegistries) {
-								meterRegistry.counter(counterName, currentTags).increment(amount);
-							}
-						}
-					}
-			);
-		}
-		else {
-			// Increment the counterName increment for every configured MaterRegistry.
-			for (MeterRegistry meterRegistry : meterRegistries) {
-				meterRegistry.counter(counterName, fixedTags).increment(amount);
-			}
-		}
-	}
-
 	@Bean
 	@ConditionalOnMissingBean
 	public SimpleMeterRegistry simpleMeterRegistry() {
@@ -16,9 +16,12 @@
 
 package io.pivotal.java.function.counter.consumer;
 
+import java.time.Duration;
 import java.util.Map;
 
+import javax.validation.Valid;
 import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Min;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -63,11 +66,39 @@ public class CounterConsumerProperties {
 	 */
 	private boolean messageCounterEnabled = true;
 
+	/**
+	 * The maximum number of (name, tags) combinations whose counters are cached after the first increment,
+	 * so they are not looked up in the meter registries again. Zero disables the cache.
+	 * Not applied if 'meterIdleTimeout' is set: all the counters are then cached until they are idle.
+	 */
+	@Min(0)
+	private int meterCacheSize = 1000;
+
+	/**
+	 * If set, the increments are accumulated locally and flushed to the meter registries with this interval,
+	 * instead of incrementing the counters in the registries for every message.
+	 */
+	private Duration aggregationInterval;
+
+	/**
+	 * If set, the counters not incremented for this time are removed from the meter registries.
+	 * All the counters are tracked for removal, including the ones with expression-derived names,
+	 * regardless of the 'meterCacheSize'.
+	 * The local aggregates of such counters (see 'aggregationInterval') are removed as well.
+	 */
+	private Duration meterIdleTimeout;
+
 	/**
 	 * Fixed and computed tags to be assignee with the counter increment measurement.
 	 */
 	private MetricsTag tag = new MetricsTag();
 
+	/**
+	 * The batch input options.
+	 */
+	@Valid
+	private Batch batch = new Batch();
+
 	public static class MetricsTag {
 
 		/**
@@ -84,6 +115,13 @@ public class CounterConsumerProperties {
 		 */
 		private Map<String, Expression> expression;
 
+		/**
+		 * If set, the maximum number of distinct values of every expression-derived tag.
+		 * The values over the limit are replaced with '__other__' and counted in the
+		 * 'counter.consumer.tag.overflow' counter. See also 'meterIdleTimeout' to free the slots of idle values.
+		 */
+		private Integer maxValues;
+
 		public Map<String, String> getFixed() {
 			return fixed;
 		}
@@ -100,11 +138,87 @@ public class CounterConsumerProperties {
 			this.expression = expression;
 		}
 
+		public Integer getMaxValues() {
+			return maxValues;
+		}
+
+		public void setMaxValues(Integer maxValues) {
+			this.maxValues = maxValues;
+		}
+
 		@Override
 		public String toString() {
 			return "MetricsTag{" +
 					"fixed=" + fixed +
 					", expression=" + expression +
+					", maxValues=" + maxValues +
+					'}';
+		}
+	}
+
+	public static class Batch {
+
+		/**
+		 * Treat a List payload (e.g. from a batch-mode binder) as a batch of payloads with the headers
+		 * of the message. The increments of the batch are summed per counter before the registries are updated.
+		 */
+		private boolean listPayload;
+
+		/**
+		 * Enables the 'counterFluxConsumer' function which counts a Flux of messages in batches.
+		 */
+		private boolean fluxConsumerEnabled;
+
+		/**
+		 * The maximum number of messages in a batch of the 'counterFluxConsumer'.
+		 */
+		@Min(1)
+		private int maxSize = 1000;
+
+		/**
+		 * The maximum time to wait for a batch of the 'counterFluxConsumer' to fill up.
+		 */
+		private Duration timeout = Duration.ofSeconds(1);
+
+		public boolean isListPayload() {
+			return listPayload;
+		}
+
+		public void setListPayload(boolean listPayload) {
+			this.listPayload = listPayload;
+		}
+
+		public boolean isFluxConsumerEnabled() {
+			return fluxConsumerEnabled;
+		}
+
+		public void setFluxConsumerEnabled(boolean fluxConsumerEnabled) {
+			this.fluxConsumerEnabled = fluxConsumerEnabled;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		public void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public Duration getTimeout() {
+			return timeout;
+		}
+
+		public void setTimeout(Duration timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public String toString() {
+			return "Batch{" +
+					"listPayload=" + listPayload +
+					", fluxConsumerEnabled=" + fluxConsumerEnabled +
+					", maxSize=" + maxSize +
+					", timeout=" + timeout +
 					'}';
 		}
 	}
@@ -113,6 +227,10 @@ public class CounterConsumerProperties {
 		return tag;
 	}
 
+	public Batch getBatch() {
+		return batch;
+	}
+
 	public String getName() {
 		if (name == null && nameExpression == null) {
 			return defaultName;
@@ -156,6 +274,30 @@ public class CounterConsumerProperties {
 		this.messageCounterEnabled = messageCounterEnabled;
 	}
 
+	public int getMeterCacheSize() {
+		return meterCacheSize;
+	}
+
+	public void setMeterCacheSize(int meterCacheSize) {
+		this.meterCacheSize = meterCacheSize;
+	}
+
+	public Duration getAggregationInterval() {
+		return aggregationInterval;
+	}
+
+	public void setAggregationInterval(Duration aggregationInterval) {
+		this.aggregationInterval = aggregationInterval;
+	}
+
+	public Duration getMeterIdleTimeout() {
+		return meterIdleTimeout;
+	}
+
+	public void setMeterIdleTimeout(Duration meterIdleTimeout) {
+		this.meterIdleTimeout = meterIdleTimeout;
+	}
+
 	@AssertTrue(message = "exactly one of 'name' and 'nameExpression' must be set")
 	public boolean isExclusiveOptions() {
 		return getName() != null ^ getNameExpression() != null;
@@ -167,6 +309,7 @@ public class CounterConsumerProperties {
 				"defaultName='" + defaultName + '\'' +
 				", name=" + name +
 				", tag=" + tag +
+				", batch=" + batch +
 				'}';
 	}
 }
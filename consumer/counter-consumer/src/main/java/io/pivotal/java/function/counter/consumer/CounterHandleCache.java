@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * A bounded cache of the {@link Counter} handles resolved in every {@link MeterRegistry} for a {@link MeterKey},
+ * so the increment of an already seen counter doesn't look it up in the registries again.
+ * <p>
+ * Once the cache is full, the handles for new keys are resolved in the registries on every call,
+ * unless every counter is tracked for the idle eviction, see {@link #setTrackIdle(boolean)}.
+ * <p>
+ * The cached counters not incremented for a while can be evicted from the cache and removed from the registries,
+ * see {@link #evictIdle(long)}.
+ * <p>
+ * Thread-safe.
+ */
+final class CounterHandleCache {
+
+	private final MeterRegistry[] meterRegistries;
+
+	private final Tags fixedTags;
+
+	private final int maxSize;
+
+	private final Map<MeterKey, Entry> entries = new ConcurrentHashMap<>();
+
+	private volatile boolean trackIdle;
+
+	/**
+	 * Create a cache.
+	 * @param meterRegistries the registries to resolve the counters in.
+	 * @param fixedTags the tags added to every counter.
+	 * @param maxSize the maximum number of cached keys; {@code 0} to always resolve the counters.
+	 */
+	CounterHandleCache(MeterRegistry[] meterRegistries, Tags fixedTags, int maxSize) {
+		this.meterRegistries = meterRegistries;
+		this.fixedTags = fixedTags;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Whether to keep every resolved counter, over the maximum size, so that none of the counters registered
+	 * through this cache escapes the {@link #evictIdle(long)}; the idle eviction then bounds the cache instead.
+	 * @param trackIdle true to track every counter.
+	 */
+	void setTrackIdle(boolean trackIdle) {
+		this.trackIdle = trackIdle;
+	}
+
+	/**
+	 * Get the counters for the key in every registry.
+	 * @param key the counter key; copied if cached, so it may be a reusable probe.
+	 * @return the counters in the order of the registries.
+	 */
+	Counter[] get(MeterKey key) {
+		Entry entry = this.entries.get(key);
+		if (entry == null) {
+			MeterKey storedKey = key.copy();
+			Counter[] counters = resolve(storedKey);
+			if (this.trackIdle || this.entries.size() < this.maxSize) {
+				// A concurrent resolution returns the same handles from the registries
+				this.entries.putIfAbsent(storedKey, new Entry(counters));
+			}
+			return counters;
+		}
+		entry.touch();
+		return entry.counters;
+	}
+
+	/**
+	 * Increment the counters for the key in every registry.
+	 * @param key the counter key.
+	 * @param amount the amount to add.
+	 */
+	void increment(MeterKey key, double amount) {
+		for (Counter counter : get(key)) {
+			counter.increment(amount);
+		}
+	}
+
+	int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Remove the cached counters last used before the cutoff from the cache and from the registries.
+	 * An increment racing with the eviction of its counter may be lost.
+	 * @param cutoff the {@link System#currentTimeMillis()} before which a counter is idle.
+	 * @return the number of evicted counters.
+	 */
+	int evictIdle(long cutoff) {
+		int evicted = 0;
+		for (Map.Entry<MeterKey, Entry> e : this.entries.entrySet()) {
+			Entry entry = e.getValue();
+			if (entry.lastUsed < cutoff && this.entries.remove(e.getKey(), entry)) {
+				for (int i = 0; i < this.meterRegistries.length; i++) {
+					this.meterRegistries[i].remove(entry.counters[i]);
+				}
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	private Counter[] resolve(MeterKey key) {
+		Tags tags = this.fixedTags.and(key.getTags());
+		Counter[] counters = new Counter[this.meterRegistries.length];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = this.meterRegistries[i].counter(key.getName(), tags);
+		}
+		return counters;
+	}
+
+	private static final class Entry {
+
+		/**
+		 * The resolution of the last used time; avoids a shared memory write on every increment.
+		 */
+		private static final long TOUCH_RESOLUTION = 1000;
+
+		private final Counter[] counters;
+
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		Entry(Counter[] counters) {
+			this.counters = counters;
+		}
+
+		void touch() {
+			long now = System.currentTimeMillis();
+			if (now - this.lastUsed >= TOUCH_RESOLUTION) {
+				this.lastUsed = now;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.Assert;
+
+/**
+ * Periodically removes the counters not incremented for the idle timeout from the {@link CounterHandleCache}
+ * and the meter registries and, if configured, the idle cells of the {@link CounterAggregator}
+ * and frees the idle tag values in the {@link TagCardinalityGuard}.
+ * The number of removed counters is reported by the {@link #EVICTED_METER_NAME} counter.
+ */
+final class IdleMeterEvictor implements InitializingBean, DisposableBean {
+
+	static final String EVICTED_METER_NAME = "counter.consumer.meters.evicted";
+
+	private final CounterHandleCache counterHandleCache;
+
+	private final CounterAggregator counterAggregator;
+
+	private final TagCardinalityGuard tagCardinalityGuard;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Duration idleTimeout;
+
+	private final Counter[] evictions;
+
+	private volatile ScheduledFuture<?> evictionTask;
+
+	IdleMeterEvictor(CounterHandleCache counterHandleCache, CounterAggregator counterAggregator,
+			TagCardinalityGuard tagCardinalityGuard, MeterRegistry[] meterRegistries, TaskScheduler taskScheduler,
+			Duration idleTimeout) {
+
+		Assert.isTrue(!idleTimeout.isNegative() && !idleTimeout.isZero(), "'idleTimeout' must be positive");
+		this.counterHandleCache = counterHandleCache;
+		this.counterAggregator = counterAggregator;
+		this.tagCardinalityGuard = tagCardinalityGuard;
+		this.taskScheduler = taskScheduler;
+		this.idleTimeout = idleTimeout;
+		this.evictions = new Counter[meterRegistries.length];
+		for (int i = 0; i < meterRegistries.length; i++) {
+			this.evictions[i] = Counter.builder(EVICTED_METER_NAME)
+					.description("The number of idle counters removed from the registry")
+					.register(meterRegistries[i]);
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		Duration period = this.idleTimeout.dividedBy(2);
+		this.evictionTask =
+				this.taskScheduler.scheduleWithFixedDelay(this::evictIdle,
+						period.isZero() ? Duration.ofMillis(1) : period);
+	}
+
+	void evictIdle() {
+		evictIdle(System.currentTimeMillis() - this.idleTimeout.toMillis());
+	}
+
+	void evictIdle(long cutoff) {
+		if (this.counterAggregator != null) {
+			// Before the counters: the last flush of a cell would register its counter again
+			this.counterAggregator.evictIdle(cutoff);
+		}
+		int evicted = this.counterHandleCache.evictIdle(cutoff);
+		if (this.tagCardinalityGuard != null) {
+			this.tagCardinalityGuard.evictIdle(cutoff);
+		}
+		if (evicted > 0) {
+			for (Counter eviction : this.evictions) {
+				eviction.increment(evicted);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		ScheduledFuture<?> evictionTask = this.evictionTask;
+		if (evictionTask != null) {
+			evictionTask.cancel(false);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjDoubleConsumer;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Evaluates the counter name, amount and tags of a message and passes the increments to the counter.
+ * <p>
+ * For a batch, the increments of all its messages are summed per {@link MeterKey} first, so the counter
+ * (and the meter registries behind it) sees only one increment per distinct key of the batch.
+ * <p>
+ * Thread-safe.
+ */
+final class MessageCounter {
+
+	private final String counterName;
+
+	private final Expression nameExpression;
+
+	private final Expression amountExpression;
+
+	private final TagExpander tagExpander;
+
+	private final EvaluationContext evaluationContext;
+
+	private final ObjDoubleConsumer<MeterKey> counter;
+
+	/**
+	 * Create a message counter.
+	 * @param properties the counter properties.
+	 * @param tagExpander the tag expander.
+	 * @param evaluationContext the context to evaluate the expressions in.
+	 * @param counter the consumer of the increments.
+	 */
+	MessageCounter(CounterConsumerProperties properties, TagExpander tagExpander,
+			EvaluationContext evaluationContext, ObjDoubleConsumer<MeterKey> counter) {
+
+		// Avoid evaluating the literal defaults for every message
+		this.counterName = properties.getNameExpression() == null ? properties.getName() : null;
+		this.nameExpression = properties.getNameExpression();
+		this.amountExpression = properties.getAmountExpression();
+		this.tagExpander = tagExpander;
+		this.evaluationContext = evaluationContext;
+		this.counter = counter;
+	}
+
+	void count(Message<?> message) {
+		count(message, this.counter);
+	}
+
+	/**
+	 * Count the messages of a batch.
+	 * @param messages the messages.
+	 */
+	void countBatch(Iterable<? extends Message<?>> messages) {
+		BatchTotals totals = new BatchTotals();
+		for (Message<?> message : messages) {
+			count(message, totals);
+		}
+		totals.flushTo(this.counter);
+	}
+
+	/**
+	 * Count the elements of a batch payload, e.g. from a batch-mode binder, as separate messages
+	 * with the headers of the batch message.
+	 * @param batch the message with a batch payload.
+	 */
+	void countBatchPayload(Message<? extends Iterable<?>> batch) {
+		BatchTotals totals = new BatchTotals();
+		for (Object payload : batch.getPayload()) {
+			count(MessageBuilder.createMessage(payload, batch.getHeaders()), totals);
+		}
+		totals.flushTo(this.counter);
+	}
+
+	private void count(Message<?> message, ObjDoubleConsumer<MeterKey> counter) {
+		String counterName = this.counterName != null
+				? this.counterName
+				: this.nameExpression.getValue(this.evaluationContext, message, CharSequence.class).toString();
+
+		double amount = this.amountExpression != null
+				? this.amountExpression.getValue(this.evaluationContext, message, double.class)
+				: 1.0;
+
+		this.tagExpander.expand(counterName, amount, this.evaluationContext, message, counter);
+	}
+
+	/**
+	 * The sums of the increments of a batch per key.
+	 */
+	private static final class BatchTotals implements ObjDoubleConsumer<MeterKey> {
+
+		private final Map<MeterKey, double[]> totals = new HashMap<>();
+
+		@Override
+		public void accept(MeterKey key, double amount) {
+			double[] total = this.totals.get(key);
+			if (total == null) {
+				this.totals.put(key.copy(), new double[] { amount });
+			}
+			else {
+				total[0] += amount;
+			}
+		}
+
+		void flushTo(ObjDoubleConsumer<MeterKey> counter) {
+			for (Map.Entry<MeterKey, double[]> entry : this.totals.entrySet()) {
+				counter.accept(entry.getKey(), entry.getValue()[0]);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.Arrays;
+
+/**
+ * The identity of a counter in the {@link CounterHandleCache}: the counter name and the
+ * expression-derived tags as a flat {@code [key1, value1, key2, value2, ...]} array.
+ * The fixed tags are not part of the key since they are the same for all counters.
+ * <p>
+ * A key can be reused as a lookup probe over a reusable tags buffer (see {@link #set(String, String[], int)}),
+ * so a lookup of an existing counter doesn't allocate. Such a key must be {@link #copy() copied} to be stored.
+ */
+final class MeterKey {
+
+	private String name;
+
+	private String[] tags;
+
+	private int length;
+
+	private int hash;
+
+	MeterKey(String name, String[] tags) {
+		set(name, tags, tags.length);
+	}
+
+	/**
+	 * Point this key to the name and the first {@code length} elements of the tags array.
+	 * @param name the counter name.
+	 * @param tags the tag keys and values.
+	 * @param length the number of the used elements in the tags array.
+	 * @return this key.
+	 */
+	MeterKey set(String name, String[] tags, int length) {
+		this.name = name;
+		this.tags = tags;
+		this.length = length;
+		int hash = name.hashCode();
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + tags[i].hashCode();
+		}
+		this.hash = hash;
+		return this;
+	}
+
+	/**
+	 * @return a key which doesn't share the tags array with this one.
+	 */
+	MeterKey copy() {
+		return new MeterKey(this.name, Arrays.copyOf(this.tags, this.length));
+	}
+
+	String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the tag keys and values; only for the keys which are not probes.
+	 */
+	String[] getTags() {
+		return this.tags.length == this.length ? this.tags : Arrays.copyOf(this.tags, this.length);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof MeterKey)) {
+			return false;
+		}
+		MeterKey that = (MeterKey) o;
+		if (this.hash != that.hash || this.length != that.length || !this.name.equals(that.name)) {
+			return false;
+		}
+		for (int i = 0; i < this.length; i++) {
+			if (!this.tags[i].equals(that.tags[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public String toString() {
+		return this.name + Arrays.toString(Arrays.copyOf(this.tags, this.length));
+	}
+
+}
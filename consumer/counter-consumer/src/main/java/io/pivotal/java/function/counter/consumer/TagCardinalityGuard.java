@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.util.Assert;
+
+/**
+ * Limits the number of distinct values of every expression-derived tag.
+ * <p>
+ * The first {@code maxValues} values of a tag are admitted as is; any other value is replaced with
+ * {@link #OVERFLOW_VALUE} and counted in the {@link #OVERFLOW_METER_NAME} counter tagged with the tag name.
+ * The admitted values are tracked exactly: a set of at most {@code maxValues} strings per tag is as small
+ * as a cardinality sketch for the limits which make sense for the meter tags, and unlike a sketch it can tell
+ * whether a particular value is already admitted.
+ * <p>
+ * The values not seen for a while can be evicted to free their slots, see {@link #evictIdle(long)}.
+ * <p>
+ * Thread-safe.
+ */
+final class TagCardinalityGuard {
+
+	static final String OVERFLOW_VALUE = "__other__";
+
+	static final String OVERFLOW_METER_NAME = "counter.consumer.tag.overflow";
+
+	private final MeterRegistry[] meterRegistries;
+
+	private final int maxValues;
+
+	private final Map<String, TagValues> tags = new ConcurrentHashMap<>();
+
+	TagCardinalityGuard(MeterRegistry[] meterRegistries, int maxValues) {
+		Assert.isTrue(maxValues > 0, "'maxValues' must be positive");
+		this.meterRegistries = meterRegistries;
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * Admit the value of the tag.
+	 * @param tag the tag name.
+	 * @param value the tag value.
+	 * @return the value if admitted, otherwise {@link #OVERFLOW_VALUE}.
+	 */
+	String admit(String tag, String value) {
+		TagValues values = this.tags.get(tag);
+		if (values == null) {
+			values = this.tags.computeIfAbsent(tag, TagValues::new);
+		}
+		return values.admit(value) ? value : OVERFLOW_VALUE;
+	}
+
+	/**
+	 * Forget the tag values last seen before the cutoff, so new values can be admitted instead.
+	 * @param cutoff the {@link System#currentTimeMillis()} before which a value is idle.
+	 */
+	void evictIdle(long cutoff) {
+		for (TagValues values : this.tags.values()) {
+			values.evictIdle(cutoff);
+		}
+	}
+
+	private final class TagValues {
+
+		private final Map<String, LastSeen> values = new ConcurrentHashMap<>();
+
+		private final AtomicInteger size = new AtomicInteger();
+
+		private final Counter[] overflows;
+
+		TagValues(String tag) {
+			this.overflows = new Counter[TagCardinalityGuard.this.meterRegistries.length];
+			for (int i = 0; i < this.overflows.length; i++) {
+				this.overflows[i] = Counter.builder(OVERFLOW_METER_NAME)
+						.tag("tag", tag)
+						.description("The number of tag values replaced with '" + OVERFLOW_VALUE + "'")
+						.register(TagCardinalityGuard.this.meterRegistries[i]);
+			}
+		}
+
+		boolean admit(String value) {
+			LastSeen lastSeen = this.values.get(value);
+			if (lastSeen == null) {
+				if (this.size.incrementAndGet() > TagCardinalityGuard.this.maxValues
+						|| this.values.putIfAbsent(value, new LastSeen()) != null) {
+
+					// Over the limit or admitted concurrently
+					this.size.decrementAndGet();
+					lastSeen = this.values.get(value);
+					if (lastSeen == null) {
+						for (Counter overflow : this.overflows) {
+							overflow.increment();
+						}
+						return false;
+					}
+				}
+				else {
+					return true;
+				}
+			}
+			lastSeen.touch();
+			return true;
+		}
+
+		void evictIdle(long cutoff) {
+			for (Map.Entry<String, LastSeen> entry : this.values.entrySet()) {
+				if (entry.getValue().time < cutoff && this.values.remove(entry.getKey(), entry.getValue())) {
+					this.size.decrementAndGet();
+				}
+			}
+		}
+
+	}
+
+	private static final class LastSeen {
+
+		/**
+		 * The resolution of the last seen time; avoids a shared memory write on every admission.
+		 */
+		private static final long TOUCH_RESOLUTION = 1000;
+
+		private volatile long time = System.currentTimeMillis();
+
+		void touch() {
+			long now = System.currentTimeMillis();
+			if (now - this.time >= TOUCH_RESOLUTION) {
+				this.time = now;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.ObjDoubleConsumer;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.util.StringUtils;
+
+/**
+ * Expands the tag expressions evaluated against a message into the counter increments.
+ * <p>
+ * Every expression yields a list of values: a collection or an array is one value per non-empty element,
+ * any other non-null value is a single value. The N-th increment is tagged with the N-th value of every tag
+ * which has values, or with an empty value if the list of the tag is shorter; the tags with no values at all
+ * are omitted. A single untagged increment is made if no tag has values.
+ * <p>
+ * The values and the tags of an increment are collected into the per-thread buffers pre-sized for the
+ * configured tags, and the increment is passed to the consumer as a reusable {@link MeterKey} probe,
+ * so the expansion itself doesn't allocate (apart from growing the buffers for longer value lists).
+ * <p>
+ * Thread-safe.
+ */
+final class TagExpander {
+
+	private static final String[] NO_TAGS = new String[0];
+
+	private final String[] tagNames;
+
+	private final Expression[] expressions;
+
+	private final TagCardinalityGuard tagCardinalityGuard;
+
+	private final ThreadLocal<Buffers> buffers;
+
+	/**
+	 * Create an expander.
+	 * @param tagExpressions the tag name to the expression map; may be {@code null}.
+	 * @param tagCardinalityGuard the guard to admit the tag values; may be {@code null}.
+	 */
+	TagExpander(Map<String, Expression> tagExpressions, TagCardinalityGuard tagCardinalityGuard) {
+		int size = tagExpressions != null ? tagExpressions.size() : 0;
+		this.tagNames = new String[size];
+		this.expressions = new Expression[size];
+		if (tagExpressions != null) {
+			int i = 0;
+			for (Map.Entry<String, Expression> entry : tagExpressions.entrySet()) {
+				this.tagNames[i] = entry.getKey();
+				this.expressions[i++] = entry.getValue();
+			}
+		}
+		this.tagCardinalityGuard = tagCardinalityGuard;
+		this.buffers = ThreadLocal.withInitial(() -> new Buffers(size));
+	}
+
+	/**
+	 * Evaluate the tag expressions and pass every increment to the counter.
+	 * @param counterName the counter name.
+	 * @param amount the amount of every increment.
+	 * @param context the evaluation context.
+	 * @param rootObject the root object to evaluate the tag expressions against.
+	 * @param counter the consumer of the increments; must copy the key to retain it.
+	 */
+	void expand(String counterName, double amount, EvaluationContext context, Object rootObject,
+			ObjDoubleConsumer<MeterKey> counter) {
+
+		Buffers buffers = this.buffers.get();
+		try {
+			int maxCount = 0;
+			for (int t = 0; t < this.expressions.length; t++) {
+				maxCount = Math.max(maxCount, buffers.collect(t, this.expressions[t].getValue(context, rootObject)));
+			}
+			if (maxCount == 0) {
+				counter.accept(buffers.key.set(counterName, NO_TAGS, 0), amount);
+				return;
+			}
+			for (int i = 0; i < maxCount; i++) {
+				int length = 0;
+				for (int t = 0; t < this.tagNames.length; t++) {
+					int count = buffers.counts[t];
+					if (count > 0) {
+						String tagValue = i < count ? buffers.values[t][i] : "";
+						if (this.tagCardinalityGuard != null && !tagValue.isEmpty()) {
+							tagValue = this.tagCardinalityGuard.admit(this.tagNames[t], tagValue);
+						}
+						buffers.tags[length++] = this.tagNames[t];
+						buffers.tags[length++] = tagValue;
+					}
+				}
+				counter.accept(buffers.key.set(counterName, buffers.tags, length), amount);
+			}
+		}
+		finally {
+			buffers.clear();
+		}
+	}
+
+	private static final class Buffers {
+
+		private final String[][] values;
+
+		private final int[] counts;
+
+		private final String[] tags;
+
+		private final MeterKey key = new MeterKey("", NO_TAGS);
+
+		Buffers(int size) {
+			this.values = new String[size][];
+			for (int i = 0; i < size; i++) {
+				this.values[i] = new String[4];
+			}
+			this.counts = new int[size];
+			this.tags = new String[size * 2];
+		}
+
+		/**
+		 * Collect the values of the tag.
+		 * @return the number of the values.
+		 */
+		int collect(int tag, Object value) {
+			this.counts[tag] = 0;
+			if (value instanceof Collection) {
+				for (Object element : (Collection<?>) value) {
+					addElement(tag, element);
+				}
+			}
+			else if (value instanceof Object[]) {
+				for (Object element : (Object[]) value) {
+					addElement(tag, element);
+				}
+			}
+			else if (value != null && value.getClass().isArray()) {
+				int length = Array.getLength(value);
+				for (int i = 0; i < length; i++) {
+					addElement(tag, Array.get(value, i));
+				}
+			}
+			else if (value != null) {
+				add(tag, value.toString());
+			}
+			return this.counts[tag];
+		}
+
+		private void addElement(int tag, Object element) {
+			if (element != null) {
+				String value = element.toString();
+				if (StringUtils.hasText(value)) {
+					add(tag, value);
+				}
+			}
+		}
+
+		private void add(int tag, String value) {
+			int count = this.counts[tag];
+			if (count == this.values[tag].length) {
+				this.values[tag] = Arrays.copyOf(this.values[tag], count * 2);
+			}
+			this.values[tag][count] = value;
+			this.counts[tag] = count + 1;
+		}
+
+		/**
+		 * Release the references to the message values.
+		 */
+		void clear() {
+			for (int t = 0; t < this.counts.length; t++) {
+				Arrays.fill(this.values[t], 0, this.counts[t], null);
+				this.counts[t] = 0;
+			}
+			Arrays.fill(this.tags, null);
+			this.key.set("", NO_TAGS, 0);
+		}
+
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@TestPropertySource(properties = {
+		"counter.name=counter666",
+		"counter.tag.expression.foo=payload",
+		"counter.batch.list-payload=true",
+		"counter.batch.flux-consumer-enabled=true",
+		"counter.batch.max-size=2"
+})
+class BatchTests extends CounterConsumerParentTest {
+
+	@Autowired
+	private Consumer<Flux<Message<?>>> counterFluxConsumer;
+
+	@Test
+	void testListPayload() {
+		counterConsumer.accept(new GenericMessage<>(Arrays.asList("a", "b", "a", "a")));
+
+		assertThat(meterRegistry.find("counter666").tag("foo", "a").counter().count()).isEqualTo(3.0);
+		assertThat(meterRegistry.find("counter666").tag("foo", "b").counter().count()).isEqualTo(1.0);
+	}
+
+	@Test
+	void testFluxInput() {
+		this.counterFluxConsumer.accept(
+				Flux.just("c", "d", "c", "c", "d").<Message<?>>map(GenericMessage::new));
+
+		assertThat(meterRegistry.find("counter666").tag("foo", "c").counter().count()).isEqualTo(3.0);
+		assertThat(meterRegistry.find("counter666").tag("foo", "d").counter().count()).isEqualTo(2.0);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CounterHandleCacheTests {
+
+	private final SimpleMeterRegistry registry1 = new SimpleMeterRegistry();
+
+	private final SimpleMeterRegistry registry2 = new SimpleMeterRegistry();
+
+	@Test
+	void testHandlesResolvedInAllRegistries() {
+		MeterRegistry[] registries = { this.registry1, this.registry2 };
+		CounterHandleCache cache = new CounterHandleCache(registries, Tags.of("foo", "bar"), 10);
+
+		Counter[] counters = cache.get(new MeterKey("counter666", new String[] { "gork", "bork" }));
+		assertThat(counters).hasSize(2);
+		for (int i = 0; i < registries.length; i++) {
+			assertThat(counters[i])
+					.isSameAs(registries[i].get("counter666").tag("foo", "bar").tag("gork", "bork").counter());
+		}
+
+		assertThat(cache.get(new MeterKey("counter666", new String[] { "gork", "bork" }))).isSameAs(counters);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void testCacheIsBounded() {
+		CounterHandleCache cache = new CounterHandleCache(new MeterRegistry[] { this.registry1 }, Tags.empty(), 2);
+
+		for (int i = 0; i < 5; i++) {
+			cache.get(new MeterKey("counter" + i, new String[0]))[0].increment();
+		}
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(this.registry1.get("counter4").counter().count()).isEqualTo(1.0);
+		assertThat(cache.get(new MeterKey("counter4", new String[0]))[0].count()).isEqualTo(1.0);
+	}
+
+	@Test
+	void testIdleCountersEvicted() {
+		CounterHandleCache cache = new CounterHandleCache(new MeterRegistry[] { this.registry1 }, Tags.empty(), 10);
+		cache.get(new MeterKey("counter666", new String[0]))[0].increment();
+
+		assertThat(cache.evictIdle(System.currentTimeMillis() - 60_000)).isZero();
+		assertThat(cache.evictIdle(Long.MAX_VALUE)).isEqualTo(1);
+		assertThat(cache.size()).isZero();
+		assertThat(this.registry1.find("counter666").counter()).isNull();
+	}
+
+	@Test
+	void testAllCountersTrackedForIdleEviction() {
+		CounterHandleCache cache = new CounterHandleCache(new MeterRegistry[] { this.registry1 }, Tags.empty(), 2);
+		cache.setTrackIdle(true);
+
+		for (int i = 0; i < 5; i++) {
+			cache.get(new MeterKey("counter" + i, new String[0]))[0].increment();
+		}
+
+		assertThat(cache.size()).isEqualTo(5);
+		assertThat(cache.evictIdle(Long.MAX_VALUE)).isEqualTo(5);
+		assertThat(this.registry1.getMeters()).isEmpty();
+	}
+
+}
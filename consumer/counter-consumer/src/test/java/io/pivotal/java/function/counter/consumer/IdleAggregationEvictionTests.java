@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@TestPropertySource(properties = {
+		"counter.name=counter666",
+		"counter.tag.expression.foo=payload",
+		"counter.tag.max-values=2",
+		"counter.aggregation-interval=1h",
+		"counter.meter-idle-timeout=1h"
+})
+class IdleAggregationEvictionTests extends CounterConsumerParentTest {
+
+	@Autowired
+	private CounterAggregator counterAggregator;
+
+	@Autowired
+	private IdleMeterEvictor idleMeterEvictor;
+
+	@Test
+	void testIdleCellsEvicted() {
+		Stream.of("a", "b", "a").forEach(payload -> counterConsumer.accept(new GenericMessage<>(payload)));
+		this.counterAggregator.flush();
+		assertThat(meterRegistry.find("counter666").tag("foo", "a").counter().count()).isEqualTo(2.0);
+		assertThat(this.counterAggregator.size()).isEqualTo(2);
+
+		this.idleMeterEvictor.evictIdle(Long.MAX_VALUE);
+		assertThat(this.counterAggregator.size()).isZero();
+		assertThat(meterRegistry.find("counter666").counters()).isEmpty();
+
+		// The freed tag slots are taken by the new values, which don't pile up in the aggregator
+		Stream.of("c", "d", "c").forEach(payload -> counterConsumer.accept(new GenericMessage<>(payload)));
+		this.counterAggregator.flush();
+		assertThat(meterRegistry.find("counter666").tag("foo", "c").counter().count()).isEqualTo(2.0);
+		assertThat(meterRegistry.find("counter666").tag("foo", "d").counter().count()).isEqualTo(1.0);
+		assertThat(this.counterAggregator.size()).isEqualTo(2);
+	}
+
+}
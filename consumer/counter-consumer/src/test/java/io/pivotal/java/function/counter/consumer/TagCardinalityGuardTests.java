@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@TestPropertySource(properties = {
+		"counter.name=counter666",
+		"counter.tag.expression.foo=payload",
+		"counter.tag.max-values=2"
+})
+class TagCardinalityGuardTests extends CounterConsumerParentTest {
+
+	@Test
+	void testOverflowValues() {
+		Stream.of("a", "b", "a", "c", "d", "b")
+				.forEach(payload -> counterConsumer.accept(new GenericMessage<>(payload)));
+
+		assertThat(meterRegistry.find("counter666").tag("foo", "a").counter().count()).isEqualTo(2.0);
+		assertThat(meterRegistry.find("counter666").tag("foo", "b").counter().count()).isEqualTo(2.0);
+		assertThat(meterRegistry.find("counter666").tag("foo", TagCardinalityGuard.OVERFLOW_VALUE).counter().count())
+				.isEqualTo(2.0);
+		assertThat(meterRegistry.find("counter666").counters()).hasSize(3);
+		assertThat(meterRegistry.find(TagCardinalityGuard.OVERFLOW_METER_NAME).tag("tag", "foo").counter().count())
+				.isEqualTo(2.0);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TagExpanderTests {
+
+	private final SpelExpressionParser parser = new SpelExpressionParser();
+
+	@Test
+	void testShorterValueListsArePadded() {
+		Map<String, Expression> tagExpressions = new LinkedHashMap<>();
+		tagExpressions.put("foo", this.parser.parseExpression("{'a', 'b', null, ''}"));
+		tagExpressions.put("bar", this.parser.parseExpression("'c'"));
+		tagExpressions.put("baz", this.parser.parseExpression("null"));
+
+		List<MeterKey> keys = new ArrayList<>();
+		new TagExpander(tagExpressions, null)
+				.expand("counter666", 2.0, new StandardEvaluationContext(), "hello", (key, amount) -> {
+					assertThat(amount).isEqualTo(2.0);
+					keys.add(key.copy());
+				});
+
+		assertThat(keys).containsExactly(
+				new MeterKey("counter666", new String[] { "foo", "a", "bar", "c" }),
+				new MeterKey("counter666", new String[] { "foo", "b", "bar", "" }));
+	}
+
+	@Test
+	void testNoTagValues() {
+		List<MeterKey> keys = new ArrayList<>();
+		new TagExpander(null, null)
+				.expand("counter666", 1.0, new StandardEvaluationContext(), "hello",
+						(key, amount) -> keys.add(key.copy()));
+
+		assertThat(keys).containsExactly(new MeterKey("counter666", new String[0]));
+	}
+
+	@Test
+	void testProbeKeyEqualsStoredKey() {
+		String[] buffer = Arrays.copyOf(new String[] { "foo", "a" }, 4);
+		MeterKey probe = new MeterKey("", new String[0]).set("counter666", buffer, 2);
+
+		assertThat(probe).isEqualTo(new MeterKey("counter666", new String[] { "foo", "a" }));
+		assertThat(probe.hashCode()).isEqualTo(new MeterKey("counter666", new String[] { "foo", "a" }).hashCode());
+	}
+
+}
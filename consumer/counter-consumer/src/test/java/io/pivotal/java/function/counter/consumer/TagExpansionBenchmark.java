@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.counter.consumer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjDoubleConsumer;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Compares the per-message tag expansion with {@code Collectors.groupingBy} and the {@code Tags} per increment
+ * (as it was done before the {@link TagExpander}) with the {@link TagExpander} and the {@link CounterHandleCache}.
+ * Run with the GC profiler to see the allocation per message ({@code gc.alloc.rate.norm}).
+ * Not a part of the test suite: run it via the {@link #main(String[])} method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagExpansionBenchmark {
+
+	@Param({ "1", "3" })
+	public int valuesPerTag;
+
+	private MeterRegistry[] meterRegistries;
+
+	private EvaluationContext evaluationContext;
+
+	private Map<String, String> fixedTags;
+
+	private Map<String, Expression> tagExpressions;
+
+	private TagExpander tagExpander;
+
+	private ObjDoubleConsumer<MeterKey> counter;
+
+	private Message<?> message;
+
+	@Setup
+	public void setup() {
+		this.meterRegistries = new MeterRegistry[] { new SimpleMeterRegistry() };
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext();
+		this.fixedTags = Collections.singletonMap("app", "benchmark");
+		SpelExpressionParser parser = new SpelExpressionParser();
+		this.tagExpressions = new LinkedHashMap<>();
+		this.tagExpressions.put("region", parser.parseExpression("payload['region']"));
+		this.tagExpressions.put("code", parser.parseExpression("payload['codes']"));
+		this.tagExpander = new TagExpander(this.tagExpressions, null);
+		this.counter = new CounterHandleCache(this.meterRegistries, Tags.of("app", "benchmark"), 1000)::increment;
+
+		Map<String, Object> payload = new HashMap<>();
+		payload.put("region", "emea");
+		payload.put("codes", Arrays.asList("200", "404", "500").subList(0, this.valuesPerTag));
+		this.message = new GenericMessage<>(payload);
+	}
+
+	@Benchmark
+	public void groupingBy() {
+		Tags fixedTags = Tags.of(this.fixedTags.entrySet().stream()
+				.filter(e -> StringUtils.hasText(e.getKey()) && StringUtils.hasText(e.getValue()))
+				.map(e -> Tag.of(e.getKey(), e.getValue()))
+				.collect(Collectors.toList()));
+		Map<String, List<Tag>> groupedTags = this.tagExpressions.entrySet().stream()
+				.map(namedExpression ->
+						toList(namedExpression.getValue().getValue(this.evaluationContext, this.message)).stream()
+								.map(tagValue -> Tag.of(namedExpression.getKey(), tagValue))
+								.collect(Collectors.toList())).flatMap(List::stream)
+				.collect(Collectors.groupingBy(Tag::getKey, Collectors.toList()));
+		int max = groupedTags.values().stream().map(List::size).max(Integer::compareTo).orElse(0);
+		for (int i = 0; i < max; i++) {
+			Tags currentTags = Tags.of(fixedTags);
+			for (Map.Entry<String, List<Tag>> e : groupedTags.entrySet()) {
+				currentTags = (e.getValue().size() > i) ?
+						currentTags.and(e.getValue().get(i)) :
+						currentTags.and(Tags.of(e.getKey(), ""));
+			}
+			for (MeterRegistry meterRegistry : this.meterRegistries) {
+				meterRegistry.counter("benchmark", currentTags).increment(1.0);
+			}
+		}
+	}
+
+	@Benchmark
+	public void tagExpander() {
+		this.tagExpander.expand("benchmark", 1.0, this.evaluationContext, this.message, this.counter);
+	}
+
+	private static List<String> toList(Object value) {
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		if ((value instanceof Collection) || ObjectUtils.isArray(value)) {
+			Collection<?> valueCollection = (value instanceof Collection) ? (Collection<?>) value
+					: Arrays.asList(ObjectUtils.toObjectArray(value));
+			return valueCollection.stream()
+					.filter(v -> v != null)
+					.map(Object::toString)
+					.filter(StringUtils::hasText)
+					.collect(Collectors.toList());
+		}
+		else {
+			return Arrays.asList(value.toString());
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(TagExpansionBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build())
+				.run();
+	}
+
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2015-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.file.consumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.Assert;
+
+/**
+ * An alternative to the {@code FileWritingMessageHandler} in the {@code APPEND} mode for high throughput:
+ * instead of opening and closing the target file for every message, keeps the {@link FileChannel}s
+ * of the recently written files open in a bounded LRU map and writes through a direct {@link ByteBuffer}
+ * per open file, taken from a pool.
+ * <p>
+ * The buffer of a file is written to the file when it is full, every flush interval, when the file
+ * is idle for the idle timeout (and then closed), when the file is evicted from the LRU map and on destroy.
+ * The {@link FsyncMode} defines when the written data is also forced to the storage device.
+ * The periodic flush runs on a dedicated thread of the writer: it blocks on the file system,
+ * so it must not hold up the tasks of a shared scheduler.
+ * <p>
+ * The supported payloads are the same as for the {@code FileWritingMessageHandler}:
+ * {@code byte[]}, {@link String} (encoded straight into the buffer), {@link File} and {@link InputStream}.
+ * <p>
+ * Thread-safe: the writes into the same file are serialized.
+ */
+final class FileChannelWriter implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(FileChannelWriter.class);
+
+	private final Function<Message<?>, File> fileResolver;
+
+	private final Charset charset;
+
+	private final byte[] newLine;
+
+	private final int maxOpenFiles;
+
+	private final int bufferSize;
+
+	private final Duration flushInterval;
+
+	private final long idleTimeout;
+
+	private final FsyncMode fsync;
+
+	private final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+
+	private final Map<File, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Deque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+	private volatile ScheduledFuture<?> flushTask;
+
+	/**
+	 * Create a writer.
+	 * @param fileResolver the function to resolve the target file for a message.
+	 * @param charset the charset to encode {@link String} payloads.
+	 * @param appendNewLine whether to write a line separator after every message.
+	 * @param properties the channel writer options.
+	 */
+	FileChannelWriter(Function<Message<?>, File> fileResolver, Charset charset, boolean appendNewLine,
+			FileConsumerProperties.ChannelWriter properties) {
+
+		Assert.isTrue(properties.getMaxOpenFiles() > 0, "'maxOpenFiles' must be positive");
+		Assert.isTrue(properties.getBufferSize().toBytes() >= 1024, "'bufferSize' must be at least 1KB");
+		Assert.isTrue(!properties.getFlushInterval().isNegative() && !properties.getFlushInterval().isZero(),
+				"'flushInterval' must be positive");
+		this.fileResolver = fileResolver;
+		this.charset = charset;
+		this.newLine = appendNewLine ? System.lineSeparator().getBytes(charset) : null;
+		this.maxOpenFiles = properties.getMaxOpenFiles();
+		this.bufferSize = (int) properties.getBufferSize().toBytes();
+		this.flushInterval = properties.getFlushInterval();
+		this.idleTimeout = properties.getIdleTimeout().toMillis();
+		this.fsync = properties.getFsync();
+		this.taskScheduler.setThreadNamePrefix("file-channel-writer-");
+		// An interrupt would close the file channel being flushed
+		this.taskScheduler.setWaitForTasksToCompleteOnShutdown(true);
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		this.taskScheduler.initialize();
+		this.flushTask = this.taskScheduler.scheduleWithFixedDelay(this::flushAndCloseIdle, this.flushInterval);
+	}
+
+	void write(Message<?> message) {
+		File file = this.fileResolver.apply(message);
+		while (true) {
+			OpenFile openFile = acquire(file);
+			synchronized (openFile) {
+				if (openFile.closed) {
+					// Evicted or closed as idle concurrently: open it again
+					continue;
+				}
+				try {
+					openFile.write(message.getPayload());
+				}
+				catch (IOException | RuntimeException ex) {
+					release(openFile);
+					throw new MessageHandlingException(message, "Failed to write to " + file, ex);
+				}
+				return;
+			}
+		}
+	}
+
+	int getOpenFileCount() {
+		synchronized (this.openFiles) {
+			return this.openFiles.size();
+		}
+	}
+
+	/**
+	 * Write the buffered data of all the open files and close the files idle for the idle timeout.
+	 */
+	void flushAndCloseIdle() {
+		long idleBefore = System.currentTimeMillis() - this.idleTimeout;
+		for (OpenFile openFile : snapshot()) {
+			synchronized (openFile) {
+				if (openFile.closed) {
+					continue;
+				}
+				if (openFile.lastWrite <= idleBefore) {
+					release(openFile);
+				}
+				else {
+					try {
+						openFile.flush();
+					}
+					catch (IOException ex) {
+						logger.error("Failed to flush " + openFile.file, ex);
+						release(openFile);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		ScheduledFuture<?> flushTask = this.flushTask;
+		if (flushTask != null) {
+			flushTask.cancel(false);
+		}
+		this.taskScheduler.shutdown();
+		for (OpenFile openFile : snapshot()) {
+			synchronized (openFile) {
+				release(openFile);
+			}
+		}
+	}
+
+	private List<OpenFile> snapshot() {
+		synchronized (this.openFiles) {
+			return new ArrayList<>(this.openFiles.values());
+		}
+	}
+
+	private OpenFile acquire(File file) {
+		OpenFile openFile;
+		OpenFile evicted = null;
+		synchronized (this.openFiles) {
+			openFile = this.openFiles.get(file);
+			if (openFile == null) {
+				openFile = new OpenFile(file);
+				this.openFiles.put(file, openFile);
+				if (this.openFiles.size() > this.maxOpenFiles) {
+					Iterator<OpenFile> eldest = this.openFiles.values().iterator();
+					evicted = eldest.next();
+					eldest.remove();
+				}
+			}
+		}
+		if (evicted != null) {
+			synchronized (evicted) {
+				release(evicted);
+			}
+		}
+		return openFile;
+	}
+
+	/**
+	 * Remove the file from the open files and close it; must be called under the lock of the file.
+	 */
+	private void release(OpenFile openFile) {
+		synchronized (this.openFiles) {
+			this.openFiles.remove(openFile.file, openFile);
+		}
+		openFile.close();
+	}
+
+	private ByteBuffer borrowBuffer() {
+		synchronized (this.bufferPool) {
+			ByteBuffer buffer = this.bufferPool.poll();
+			if (buffer != null) {
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocateDirect(this.bufferSize);
+	}
+
+	private void returnBuffer(ByteBuffer buffer) {
+		buffer.clear();
+		synchronized (this.bufferPool) {
+			if (this.bufferPool.size() < this.maxOpenFiles) {
+				this.bufferPool.push(buffer);
+			}
+		}
+	}
+
+	/**
+	 * An open target file; guarded by its own monitor.
+	 */
+	private final class OpenFile {
+
+		private final File file;
+
+		private FileChannel channel;
+
+		/**
+		 * The size of the file: when opened plus the data written since.
+		 */
+		private long size;
+
+		private ByteBuffer buffer;
+
+		private CharsetEncoder encoder;
+
+		private long lastWrite = System.currentTimeMillis();
+
+		private boolean closed;
+
+		OpenFile(File file) {
+			this.file = file;
+		}
+
+		void write(Object payload) throws IOException {
+			if (this.channel == null) {
+				open();
+			}
+			int mark = this.buffer.position();
+			long sizeBefore = this.size;
+			try {
+				append(payload);
+			}
+			catch (IOException | RuntimeException ex) {
+				discard(mark, sizeBefore);
+				throw ex;
+			}
+		}
+
+		void flush() throws IOException {
+			if (this.buffer != null && this.buffer.position() > 0) {
+				drain();
+			}
+		}
+
+		void close() {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			if (this.channel != null) {
+				try {
+					flush();
+				}
+				catch (IOException ex) {
+					logger.error("Failed to flush " + this.file + "; " + this.buffer.position() +
+							" buffered bytes are lost", ex);
+				}
+				try {
+					this.channel.close();
+				}
+				catch (IOException ex) {
+					logger.error("Failed to close " + this.file, ex);
+				}
+				returnBuffer(this.buffer);
+				this.buffer = null;
+			}
+		}
+
+		private void append(Object payload) throws IOException {
+			if (payload instanceof byte[]) {
+				put((byte[]) payload);
+			}
+			else if (payload instanceof String) {
+				encode((String) payload);
+			}
+			else if (payload instanceof File) {
+				drain();
+				try (FileChannel source = FileChannel.open(((File) payload).toPath(), StandardOpenOption.READ)) {
+					long position = 0;
+					long size = source.size();
+					while (position < size) {
+						long transferred = source.transferTo(position, size - position, this.channel);
+						if (transferred == 0) {
+							// The source has been truncated concurrently
+							break;
+						}
+						position += transferred;
+						this.size += transferred;
+					}
+				}
+			}
+			else if (payload instanceof InputStream) {
+				ReadableByteChannel source = Channels.newChannel((InputStream) payload);
+				while (source.read(this.buffer) >= 0) {
+					if (!this.buffer.hasRemaining()) {
+						drain();
+					}
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported payload type [" + payload.getClass().getName() +
+						"]; the supported types are: byte[], String, File and InputStream");
+			}
+			if (FileChannelWriter.this.newLine != null) {
+				put(FileChannelWriter.this.newLine);
+			}
+			this.lastWrite = System.currentTimeMillis();
+			if (FileChannelWriter.this.fsync == FsyncMode.message) {
+				drain();
+				this.channel.force(false);
+			}
+		}
+
+		/**
+		 * Drop the part of a failed message, so the file doesn't end with a torn record:
+		 * reset the buffer to the position the message started at or, if a part of the message
+		 * has been written into the file already, truncate the file back to the data of the previous
+		 * messages, assuming this writer is the only one appending to the file.
+		 */
+		private void discard(int mark, long sizeBefore) {
+			if (this.size == sizeBefore) {
+				this.buffer.position(mark);
+			}
+			else {
+				this.buffer.clear();
+				try {
+					// The drain writes the previously buffered data first
+					this.channel.truncate(sizeBefore + mark);
+					this.size = Math.min(this.size, sizeBefore + mark);
+				}
+				catch (IOException ex) {
+					logger.error("Failed to truncate the partially written message in " + this.file, ex);
+				}
+			}
+		}
+
+		private void open() throws IOException {
+			File directory = this.file.getAbsoluteFile().getParentFile();
+			if (directory != null && !directory.exists() && !directory.mkdirs() && !directory.exists()) {
+				throw new IOException("Failed to create directory " + directory);
+			}
+			this.channel = FileChannel.open(this.file.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			this.size = this.channel.size();
+			this.buffer = borrowBuffer();
+			this.encoder = FileChannelWriter.this.charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		private void put(byte[] bytes) throws IOException {
+			if (bytes.length > this.buffer.remaining()) {
+				drain();
+				if (bytes.length > this.buffer.capacity()) {
+					writeFully(ByteBuffer.wrap(bytes));
+					return;
+				}
+			}
+			this.buffer.put(bytes);
+		}
+
+		private void encode(String value) throws IOException {
+			CharBuffer chars = CharBuffer.wrap(value);
+			this.encoder.reset();
+			CoderResult result;
+			do {
+				result = this.encoder.encode(chars, this.buffer, true);
+				if (result.isOverflow()) {
+					drain();
+				}
+			}
+			while (result.isOverflow());
+			while (this.encoder.flush(this.buffer).isOverflow()) {
+				drain();
+			}
+		}
+
+		/**
+		 * Write the buffer into the file and force it to the device if the fsync mode is {@link FsyncMode#flush}.
+		 */
+		private void drain() throws IOException {
+			this.buffer.flip();
+			writeFully(this.buffer);
+			this.buffer.clear();
+			if (FileChannelWriter.this.fsync == FsyncMode.flush) {
+				this.channel.force(false);
+			}
+		}
+
+		private void writeFully(ByteBuffer data) throws IOException {
+			while (data.hasRemaining()) {
+				this.size += this.channel.write(data);
+			}
+		}
+
+	}
+
+}
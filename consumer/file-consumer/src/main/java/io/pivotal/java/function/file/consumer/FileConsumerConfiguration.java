@@ -16,13 +16,22 @@
 
 package io.pivotal.java.function.file.consumer;
 
+import java.io.File;
+import java.nio.charset.Charset;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.file.DefaultFileNameGenerator;
 import org.springframework.integration.file.FileNameGenerator;
 import org.springframework.integration.file.FileWritingMessageHandler;
@@ -46,8 +55,11 @@ public class FileConsumerConfiguration {
 	}
 
 	@Bean
-	public Consumer<Message<?>> fileConsumer() {
-		return fileWritingMessageHandler()::handleMessage;
+	public Consumer<Message<?>> fileConsumer(ObjectProvider<FileChannelWriter> fileChannelWriter) {
+		FileChannelWriter channelWriter = fileChannelWriter.getIfAvailable();
+		return (channelWriter != null)
+				? channelWriter::write
+				: fileWritingMessageHandler()::handleMessage;
 	}
 
 	@Bean
@@ -70,4 +82,28 @@ public class FileConsumerConfiguration {
 		fileNameGenerator.setExpression(properties.getNameExpression());
 		return fileNameGenerator;
 	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "file.consumer.channel-writer", name = "enabled", havingValue = "true")
+	FileChannelWriter fileChannelWriter(
+			@Qualifier(IntegrationContextUtils.INTEGRATION_EVALUATION_CONTEXT_BEAN_NAME)
+					EvaluationContext evaluationContext) {
+
+		FileNameGenerator fileNameGenerator = fileNameGenerator();
+		Function<Message<?>, File> fileResolver;
+		if (properties.getDirectoryExpression() != null) {
+			Expression directoryExpression = EXPRESSION_PARSER.parseExpression(properties.getDirectoryExpression());
+			fileResolver = message -> {
+				Object directory = directoryExpression.getValue(evaluationContext, message);
+				return new File((directory instanceof File) ? (File) directory : new File(String.valueOf(directory)),
+						fileNameGenerator.generateFileName(message));
+			};
+		}
+		else {
+			File directory = properties.getDirectory();
+			fileResolver = message -> new File(directory, fileNameGenerator.generateFileName(message));
+		}
+		return new FileChannelWriter(fileResolver, Charset.forName(properties.getCharset()), !properties.isBinary(),
+				properties.getChannelWriter());
+	}
 }
@@ -17,12 +17,16 @@
 package io.pivotal.java.function.file.consumer;
 
 import java.io.File;
+import java.time.Duration;
 
+import javax.validation.Valid;
 import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Min;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.integration.file.support.FileExistsMode;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 /**
@@ -79,6 +83,9 @@ public class FileConsumerProperties {
 	 */
 	private String suffix = "";
 
+	@Valid
+	private final ChannelWriter channelWriter = new ChannelWriter();
+
 	public boolean isBinary() {
 		return binary;
 	}
@@ -149,6 +156,10 @@ public class FileConsumerProperties {
 		this.suffix = suffix;
 	}
 
+	public ChannelWriter getChannelWriter() {
+		return channelWriter;
+	}
+
 	@AssertTrue(message = "Exactly one of 'name' or 'nameExpression' must be set")
 	public boolean isMutuallyExclusiveNameAndNameExpression() {
 		return DEFAULT_NAME.equals(name) || nameExpression == null;
@@ -159,4 +170,104 @@ public class FileConsumerProperties {
 		return new File(DEFAULT_DIR).equals(directory) || directoryExpression == null;
 	}
 
+	@AssertTrue(message = "The 'channelWriter' supports only the 'APPEND' and 'APPEND_NO_FLUSH' modes")
+	public boolean isChannelWriterModeSupported() {
+		return !channelWriter.isEnabled()
+				|| mode == FileExistsMode.APPEND || mode == FileExistsMode.APPEND_NO_FLUSH;
+	}
+
+	public static class ChannelWriter {
+
+		/**
+		 * Whether to keep the target files open and write them through buffered channels
+		 * instead of opening and closing the target file for every message.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * The maximum number of target files kept open; the least recently written one is closed on overflow.
+		 */
+		@Min(1)
+		private int maxOpenFiles = 16;
+
+		/**
+		 * The size of the write buffer per open file.
+		 */
+		private DataSize bufferSize = DataSize.ofKilobytes(64);
+
+		/**
+		 * How often to write the buffered data into the files.
+		 */
+		private Duration flushInterval = Duration.ofSeconds(1);
+
+		/**
+		 * How long a file may stay without writes before it is closed.
+		 */
+		private Duration idleTimeout = Duration.ofMinutes(1);
+
+		/**
+		 * When to force the written data to the storage device.
+		 */
+		private FsyncMode fsync = FsyncMode.none;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxOpenFiles() {
+			return maxOpenFiles;
+		}
+
+		public void setMaxOpenFiles(int maxOpenFiles) {
+			this.maxOpenFiles = maxOpenFiles;
+		}
+
+		public DataSize getBufferSize() {
+			return bufferSize;
+		}
+
+		public void setBufferSize(DataSize bufferSize) {
+			this.bufferSize = bufferSize;
+		}
+
+		public Duration getFlushInterval() {
+			return flushInterval;
+		}
+
+		public void setFlushInterval(Duration flushInterval) {
+			this.flushInterval = flushInterval;
+		}
+
+		public Duration getIdleTimeout() {
+			return idleTimeout;
+		}
+
+		public void setIdleTimeout(Duration idleTimeout) {
+			this.idleTimeout = idleTimeout;
+		}
+
+		public FsyncMode getFsync() {
+			return fsync;
+		}
+
+		public void setFsync(FsyncMode fsync) {
+			this.fsync = fsync;
+		}
+
+		@AssertTrue(message = "The 'bufferSize' must be at least 1KB")
+		public boolean isBufferSizeValid() {
+			return bufferSize.toKilobytes() >= 1 && bufferSize.toBytes() <= Integer.MAX_VALUE;
+		}
+
+		@AssertTrue(message = "The 'flushInterval' must be positive")
+		public boolean isFlushIntervalValid() {
+			return !flushInterval.isNegative() && !flushInterval.isZero();
+		}
+
+	}
+
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.file.consumer;
+
+/**
+ * The durability of the writes of the channel writer.
+ *
+ * @see FileConsumerProperties.ChannelWriter#getFsync()
+ */
+public enum FsyncMode {
+
+	/**
+	 * Never force the written data to the storage device; leave it to the operating system.
+	 */
+	none,
+
+	/**
+	 * Force the written data to the storage device every time the buffer is flushed to the file.
+	 */
+	flush,
+
+	/**
+	 * Flush the buffer and force the written data to the storage device after every message.
+	 */
+	message
+
+}
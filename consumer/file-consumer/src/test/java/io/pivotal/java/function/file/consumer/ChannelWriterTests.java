@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.file.consumer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.util.FileCopyUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@TestPropertySource(properties = {
+		"file.consumer.name-expression = headers.file",
+		"file.consumer.suffix = txt",
+		"file.consumer.channel-writer.enabled = true",
+		"file.consumer.channel-writer.max-open-files = 2",
+		"file.consumer.channel-writer.buffer-size = 1KB",
+		"file.consumer.channel-writer.flush-interval = 1h" })
+public class ChannelWriterTests extends AbstractFileConsumerTests {
+
+	@Autowired
+	FileChannelWriter fileChannelWriter;
+
+	@Test
+	public void test() throws Exception {
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			large.append("large-");
+		}
+		fileConsumer.accept(MessageBuilder.withPayload("foo").setHeader("file", "a").build());
+		fileConsumer.accept(MessageBuilder.withPayload("bar".getBytes(StandardCharsets.UTF_8))
+				.setHeader("file", "a").build());
+		fileConsumer.accept(MessageBuilder.withPayload(new ByteArrayInputStream("baz".getBytes()))
+				.setHeader("file", "b").build());
+		fileConsumer.accept(MessageBuilder.withPayload(large.toString()).setHeader("file", "b").build());
+
+		File a = new File(tempDir.toFile(), "a.txt");
+		File b = new File(tempDir.toFile(), "b.txt");
+		assertThat(a.length()).isZero();
+		assertThat(b.length()).isGreaterThan(1000);
+
+		// Evicts 'a' from the open files
+		fileConsumer.accept(MessageBuilder.withPayload("qux").setHeader("file", "c").build());
+		assertThat(fileChannelWriter.getOpenFileCount()).isEqualTo(2);
+		assertThat(FileCopyUtils.copyToString(new FileReader(a)))
+				.isEqualTo("foo" + System.lineSeparator() + "bar" + System.lineSeparator());
+
+		fileChannelWriter.flushAndCloseIdle();
+		assertThat(FileCopyUtils.copyToString(new FileReader(b)))
+				.isEqualTo("baz" + System.lineSeparator() + large + System.lineSeparator());
+		assertThat(FileCopyUtils.copyToString(new FileReader(new File(tempDir.toFile(), "c.txt"))))
+				.isEqualTo("qux" + System.lineSeparator());
+
+		fileConsumer.accept(MessageBuilder.withPayload("foo again").setHeader("file", "a").build());
+		fileChannelWriter.destroy();
+		assertThat(fileChannelWriter.getOpenFileCount()).isZero();
+		assertThat(FileCopyUtils.copyToString(new FileReader(a)))
+				.isEqualTo("foo" + System.lineSeparator() + "bar" + System.lineSeparator() +
+						"foo again" + System.lineSeparator());
+	}
+
+	@Test
+	public void testFailedMessageIsDiscarded() throws Exception {
+		// Fails within the buffer and after a part of the message has been written into the file
+		for (int length : new int[] { 10, 3000 }) {
+			String name = "failed" + length;
+			fileConsumer.accept(MessageBuilder.withPayload("foo").setHeader("file", name).build());
+			assertThatThrownBy(() ->
+					fileConsumer.accept(MessageBuilder.withPayload(failingStream(length))
+							.setHeader("file", name)
+							.build()))
+					.isInstanceOf(MessageHandlingException.class);
+
+			fileChannelWriter.flushAndCloseIdle();
+			assertThat(FileCopyUtils.copyToString(new FileReader(new File(tempDir.toFile(), name + ".txt"))))
+					.isEqualTo("foo" + System.lineSeparator());
+		}
+	}
+
+	private static InputStream failingStream(int length) {
+		return new SequenceInputStream(new ByteArrayInputStream(new byte[length]), new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Stream failure");
+			}
+
+		});
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+/**
+ * Defines the supported ways of grouping messages into batches.
+ */
+public enum BatchingMode {
+
+	/**
+	 * An aggregator correlating messages by payload type over a {@code SimpleMessageStore}.
+	 */
+	aggregator,
+
+	/**
+	 * Lock-free striped in-memory buffers, see {@code jdbc.consumer.batch-stripes}.
+	 */
+	striped,
+
+	/**
+	 * Writer lanes selected by the hash of {@code jdbc.consumer.partition-key-expression},
+	 * each with its own buffer and writer thread, see {@code jdbc.consumer.partitions}.
+	 */
+	partitioned;
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.JDBCType;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.jdbc.core.SqlTypeValue;
+
+/**
+ * The SQL types of the table columns: the DDL type to create a column with and
+ * the matching {@link java.sql.Types} constant to bind its values with.
+ * <p>
+ * The types are either declared (e.g. {@code b:INTEGER,c:TIMESTAMP}) or inferred from sample rows:
+ * integral numbers become {@code INTEGER} or {@code BIGINT}, floating point numbers
+ * {@code DOUBLE PRECISION}, big numbers {@code NUMERIC}, booleans {@code BOOLEAN},
+ * dates and date-times {@code DATE} and {@code TIMESTAMP}.
+ * Everything else, including columns with only {@code null} samples or mixed types,
+ * remains {@value #DEFAULT_DDL_TYPE} bound as an unknown type.
+ */
+final class ColumnTypes {
+
+	static final String DEFAULT_DDL_TYPE = "VARCHAR(2000)";
+
+	private final Map<String, String> ddlTypes;
+
+	private final int[] sqlTypes;
+
+	private ColumnTypes(Map<String, String> ddlTypes, int[] sqlTypes) {
+		this.ddlTypes = ddlTypes;
+		this.sqlTypes = sqlTypes;
+	}
+
+	/**
+	 * @return the DDL type per column, in the columns order.
+	 */
+	Map<String, String> getDdlTypes() {
+		return this.ddlTypes;
+	}
+
+	/**
+	 * @return the {@link java.sql.Types} per column, in the columns order;
+	 * {@link SqlTypeValue#TYPE_UNKNOWN} for the columns to bind by the value type.
+	 */
+	int[] getSqlTypes() {
+		return this.sqlTypes;
+	}
+
+	static ColumnTypes declared(Collection<String> columns, Map<String, String> declaredTypes) {
+		return inferred(columns, declaredTypes, Collections.emptyList());
+	}
+
+	/**
+	 * Infer the types of the columns which are not declared from the sample rows.
+	 * @param columns the columns.
+	 * @param declaredTypes the declared DDL types, take precedence over inferred ones.
+	 * @param samples the rows with values ordered as the columns.
+	 * @return the column types.
+	 */
+	static ColumnTypes inferred(Collection<String> columns, Map<String, String> declaredTypes,
+			List<Object[]> samples) {
+
+		Map<String, String> ddlTypes = new LinkedHashMap<>();
+		int[] sqlTypes = new int[columns.size()];
+		int index = 0;
+		for (String column : columns) {
+			String declared = declaredTypes.get(column);
+			if (declared != null) {
+				ddlTypes.put(column, declared);
+				sqlTypes[index] = sqlType(declared);
+			}
+			else {
+				JDBCType type = inferType(samples, index);
+				ddlTypes.put(column, ddlType(type));
+				sqlTypes[index] =
+						type == null || type == JDBCType.VARCHAR ? SqlTypeValue.TYPE_UNKNOWN : type.getVendorTypeNumber();
+			}
+			index++;
+		}
+		return new ColumnTypes(ddlTypes, sqlTypes);
+	}
+
+	/**
+	 * Resolve the {@link java.sql.Types} constant for a DDL type.
+	 * @param ddlType the DDL type, e.g. {@code DECIMAL(10,2)}.
+	 * @return the {@link java.sql.Types} constant or {@link SqlTypeValue#TYPE_UNKNOWN} for unknown
+	 * and vendor-specific types.
+	 */
+	static int sqlType(String ddlType) {
+		String type = ddlType.trim().toUpperCase(Locale.ROOT);
+		int parenthesis = type.indexOf('(');
+		if (parenthesis > 0) {
+			type = type.substring(0, parenthesis).trim();
+		}
+		switch (type) {
+			case "VARCHAR":
+			case "CHARACTER VARYING":
+			case "TEXT":
+				return Types.VARCHAR;
+			case "INT":
+			case "INT4":
+				return Types.INTEGER;
+			case "INT8":
+				return Types.BIGINT;
+			case "INT2":
+				return Types.SMALLINT;
+			case "BOOL":
+				return Types.BOOLEAN;
+			case "DOUBLE PRECISION":
+			case "FLOAT8":
+				return Types.DOUBLE;
+			case "FLOAT4":
+				return Types.REAL;
+			case "TIMESTAMP WITH TIME ZONE":
+			case "TIMESTAMPTZ":
+				return Types.TIMESTAMP_WITH_TIMEZONE;
+			default:
+				try {
+					return JDBCType.valueOf(type).getVendorTypeNumber();
+				}
+				catch (IllegalArgumentException ex) {
+					return SqlTypeValue.TYPE_UNKNOWN;
+				}
+		}
+	}
+
+	private static JDBCType inferType(List<Object[]> samples, int column) {
+		JDBCType type = null;
+		for (Object[] row : samples) {
+			Object value = row[column];
+			if (value != null) {
+				JDBCType valueType = typeOf(value);
+				type = type == null ? valueType : widen(type, valueType);
+			}
+		}
+		return type;
+	}
+
+	private static JDBCType typeOf(Object value) {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return JDBCType.INTEGER;
+		}
+		else if (value instanceof Long) {
+			return JDBCType.BIGINT;
+		}
+		else if (value instanceof BigInteger || value instanceof BigDecimal) {
+			return JDBCType.NUMERIC;
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			return JDBCType.DOUBLE;
+		}
+		else if (value instanceof Boolean) {
+			return JDBCType.BOOLEAN;
+		}
+		else if (value instanceof java.sql.Date || value instanceof LocalDate) {
+			return JDBCType.DATE;
+		}
+		else if (value instanceof Timestamp || value instanceof LocalDateTime
+				|| (value instanceof Date && !(value instanceof java.sql.Time))) {
+
+			return JDBCType.TIMESTAMP;
+		}
+		else if (value instanceof OffsetDateTime) {
+			return JDBCType.TIMESTAMP_WITH_TIMEZONE;
+		}
+		else {
+			return JDBCType.VARCHAR;
+		}
+	}
+
+	private static JDBCType widen(JDBCType type, JDBCType other) {
+		if (type == other) {
+			return type;
+		}
+		if (isNumeric(type) && isNumeric(other)) {
+			if (type == JDBCType.NUMERIC || other == JDBCType.NUMERIC) {
+				return JDBCType.NUMERIC;
+			}
+			else if (type == JDBCType.DOUBLE || other == JDBCType.DOUBLE) {
+				return JDBCType.DOUBLE;
+			}
+			else {
+				return JDBCType.BIGINT;
+			}
+		}
+		if ((type == JDBCType.DATE && other == JDBCType.TIMESTAMP)
+				|| (type == JDBCType.TIMESTAMP && other == JDBCType.DATE)) {
+
+			return JDBCType.TIMESTAMP;
+		}
+		return JDBCType.VARCHAR;
+	}
+
+	private static boolean isNumeric(JDBCType type) {
+		return type == JDBCType.INTEGER || type == JDBCType.BIGINT || type == JDBCType.DOUBLE
+				|| type == JDBCType.NUMERIC;
+	}
+
+	private static String ddlType(JDBCType type) {
+		if (type == null || type == JDBCType.VARCHAR) {
+			return DEFAULT_DDL_TYPE;
+		}
+		switch (type) {
+			case DOUBLE:
+				return "DOUBLE PRECISION";
+			case TIMESTAMP_WITH_TIMEZONE:
+				return "TIMESTAMP WITH TIME ZONE";
+			default:
+				return type.getName();
+		}
+	}
+
+}
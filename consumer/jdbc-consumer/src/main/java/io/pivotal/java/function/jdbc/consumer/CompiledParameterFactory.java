@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.Expression;
+import org.springframework.integration.jdbc.SqlParameterSourceFactory;
+import org.springframework.integration.json.JsonPropertyAccessor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.messaging.Message;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * A {@link SqlParameterSourceFactory} for column expressions parsed in
+ * {@link org.springframework.expression.spel.SpelCompilerMode#IMMEDIATE} mode.
+ * <p>
+ * For every column the index of the expression variation (bare or {@code payload.}-qualified)
+ * which has produced a value is remembered, so subsequent messages of the same shape are
+ * evaluated with a single compiled expression.
+ * The full scan over the interpreted variations is performed again only when the remembered one fails.
+ * Since a compiled expression does not revert to interpretation, a column whose compiled expression
+ * has failed for a different message shape is pinned to the interpreted variant.
+ * <p>
+ * {@link JsonPropertyAccessor.ToStringFriendlyJsonNode} results are unwrapped via a
+ * {@link MethodHandle} resolved once instead of a per-value {@code DirectFieldAccessor}.
+ */
+final class CompiledParameterFactory implements SqlParameterSourceFactory {
+
+	private static final Log logger = LogFactory.getLog(CompiledParameterFactory.class);
+
+	private static final Object NOT_SET = new Object();
+
+	/**
+	 * Resolution states: {@code >= 0} - index of a compiled variation,
+	 * {@code < UNRESOLVED} - encoded index of an interpreted variation.
+	 */
+	private static final int UNRESOLVED = -1;
+
+	private static final MethodHandle JSON_NODE_GETTER = jsonNodeGetter();
+
+	private final String[] columns;
+
+	private final Expression[][] interpretedExpressions;
+
+	private final Expression[][] compiledExpressions;
+
+	private final AtomicIntegerArray resolvedVariations;
+
+	private final EvaluationContext context;
+
+	CompiledParameterFactory(MultiValueMap<String, Expression> interpretedColumnExpressions,
+			MultiValueMap<String, Expression> compiledColumnExpressions, EvaluationContext context) {
+
+		this.columns = interpretedColumnExpressions.keySet().toArray(new String[0]);
+		this.interpretedExpressions = new Expression[this.columns.length][];
+		this.compiledExpressions = new Expression[this.columns.length][];
+		this.resolvedVariations = new AtomicIntegerArray(this.columns.length);
+		for (int i = 0; i < this.columns.length; i++) {
+			this.interpretedExpressions[i] =
+					interpretedColumnExpressions.get(this.columns[i]).toArray(new Expression[0]);
+			this.compiledExpressions[i] = compiledColumnExpressions.get(this.columns[i]).toArray(new Expression[0]);
+			this.resolvedVariations.set(i, UNRESOLVED);
+		}
+		this.context = context;
+	}
+
+	String[] getColumns() {
+		return this.columns;
+	}
+
+	@Override
+	public SqlParameterSource createParameterSource(Object o) {
+		if (!(o instanceof Message)) {
+			throw new IllegalArgumentException("Unable to handle type " + o.getClass().getName());
+		}
+		Message<?> message = (Message<?>) o;
+		MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+		for (int i = 0; i < this.columns.length; i++) {
+			parameterSource.addValue(this.columns[i], columnValue(i, message));
+		}
+		return parameterSource;
+	}
+
+	/**
+	 * Evaluate all the columns for the message into an array ordered as {@link #getColumns()}.
+	 * @param message the message to evaluate columns against.
+	 * @return the column values.
+	 */
+	Object[] values(Message<?> message) {
+		Object[] values = new Object[this.columns.length];
+		for (int i = 0; i < this.columns.length; i++) {
+			values[i] = columnValue(i, message);
+		}
+		return values;
+	}
+
+	private Object columnValue(int column, Message<?> message) {
+		int resolved = this.resolvedVariations.get(column);
+		int failedCompiled = UNRESOLVED;
+		if (resolved != UNRESOLVED) {
+			Expression expression =
+					resolved >= 0
+							? this.compiledExpressions[column][resolved]
+							: this.interpretedExpressions[column][interpretedIndex(resolved)];
+			try {
+				return unwrap(expression.getValue(this.context, message));
+			}
+			catch (EvaluationException e) {
+				// The message shape has changed - fall back to the full scan
+				failedCompiled = resolved;
+			}
+		}
+		Expression[] variations = this.interpretedExpressions[column];
+		Object value = NOT_SET;
+		EvaluationException lastException = null;
+		for (int i = 0; i < variations.length; i++) {
+			try {
+				value = variations[i].getValue(this.context, message);
+				this.resolvedVariations.set(column, i == failedCompiled ? interpretedState(i) : i);
+				break;
+			}
+			catch (EvaluationException e) {
+				lastException = e;
+			}
+		}
+		if (value == NOT_SET) {
+			if (lastException != null) {
+				logger.info("Could not find value for column '" + this.columns[column] + "': "
+						+ lastException.getMessage());
+			}
+			return null;
+		}
+		return unwrap(value);
+	}
+
+	private static int interpretedState(int index) {
+		return UNRESOLVED - 1 - index;
+	}
+
+	private static int interpretedIndex(int state) {
+		return UNRESOLVED - 1 - state;
+	}
+
+	private static Object unwrap(Object value) {
+		if (value instanceof JsonPropertyAccessor.ToStringFriendlyJsonNode) {
+			return nodeValue(jsonNode(value));
+		}
+		return value;
+	}
+
+	static Object nodeValue(JsonNode node) {
+		if (node == null || node.isNull()) {
+			return null;
+		}
+		else if (node.isNumber()) {
+			return node.numberValue();
+		}
+		else if (node.isBoolean()) {
+			return node.booleanValue();
+		}
+		else {
+			return node.textValue();
+		}
+	}
+
+	private static JsonNode jsonNode(Object friendlyJsonNode) {
+		try {
+			return (JsonNode) JSON_NODE_GETTER.invoke(friendlyJsonNode);
+		}
+		catch (Throwable ex) {
+			throw new IllegalStateException("Cannot obtain JsonNode from " + friendlyJsonNode, ex);
+		}
+	}
+
+	private static MethodHandle jsonNodeGetter() {
+		Field field = ReflectionUtils.findField(JsonPropertyAccessor.ToStringFriendlyJsonNode.class, "node");
+		if (field == null) {
+			throw new IllegalStateException("No 'node' field in " + JsonPropertyAccessor.ToStringFriendlyJsonNode.class);
+		}
+		ReflectionUtils.makeAccessible(field);
+		try {
+			return MethodHandles.lookup().unreflectGetter(field);
+		}
+		catch (IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * A reusable encoder of rows into the PostgreSQL {@code COPY ... WITH (FORMAT csv)} input.
+ * Rows are written into an internal UTF-8 byte buffer which is kept between batches.
+ * Strings, integral numbers, booleans and {@code byte[]} values are encoded straight into the buffer,
+ * so no intermediate {@code String} or {@code byte[]} is allocated for them; other values
+ * (floating-point and big numbers, dates etc.) are encoded from their {@code toString()}.
+ * <p>
+ * {@code null} is encoded as an unquoted empty field, all non-numeric values are quoted,
+ * {@code byte[]} values are encoded in the {@code bytea} hex format.
+ * <p>
+ * Not thread-safe.
+ */
+final class CopyEncoder {
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	private static final byte[] TRUE = "true".getBytes();
+
+	private static final byte[] FALSE = "false".getBytes();
+
+	private byte[] buffer = new byte[8192];
+
+	private int size;
+
+	void encode(Object[] row) {
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				put((byte) ',');
+			}
+			encodeValue(row[i]);
+		}
+		put((byte) '\n');
+	}
+
+	byte[] buffer() {
+		return this.buffer;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	void reset() {
+		this.size = 0;
+	}
+
+	private void encodeValue(Object value) {
+		if (value == null) {
+			return;
+		}
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			putLong(((Number) value).longValue());
+		}
+		else if (value instanceof Boolean) {
+			put((Boolean) value ? TRUE : FALSE);
+		}
+		else if (value instanceof Number) {
+			putUtf8(value.toString(), false);
+		}
+		else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			ensureCapacity(2 + bytes.length * 2);
+			put((byte) '\\');
+			put((byte) 'x');
+			for (byte b : bytes) {
+				put(HEX[(b >> 4) & 0xF]);
+				put(HEX[b & 0xF]);
+			}
+		}
+		else if (value instanceof Date && !(value instanceof Timestamp)
+				&& !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time)) {
+
+			putUtf8(new Timestamp(((Date) value).getTime()).toString(), true);
+		}
+		else {
+			putUtf8(value.toString(), true);
+		}
+	}
+
+	private void putUtf8(String value, boolean quote) {
+		if (quote) {
+			put((byte) '"');
+		}
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (quote && c == '"') {
+					put((byte) '"');
+				}
+				put((byte) c);
+			}
+			else if (c < 0x800) {
+				put((byte) (0xC0 | (c >> 6)));
+				put((byte) (0x80 | (c & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				put((byte) (0xF0 | (codePoint >> 18)));
+				put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				put((byte) (0x80 | (codePoint & 0x3F)));
+			}
+			else if (Character.isSurrogate(c)) {
+				put((byte) '?');
+			}
+			else {
+				put((byte) (0xE0 | (c >> 12)));
+				put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		if (quote) {
+			put((byte) '"');
+		}
+	}
+
+	private void putLong(long value) {
+		ensureCapacity(20);
+		// Accumulate in negative to cover Long.MIN_VALUE
+		long remaining = value;
+		if (value < 0) {
+			this.buffer[this.size++] = '-';
+		}
+		else {
+			remaining = -value;
+		}
+		int start = this.size;
+		do {
+			this.buffer[this.size++] = (byte) ('0' - remaining % 10);
+			remaining /= 10;
+		}
+		while (remaining != 0);
+		for (int i = start, j = this.size - 1; i < j; i++, j--) {
+			byte digit = this.buffer[i];
+			this.buffer[i] = this.buffer[j];
+			this.buffer[j] = digit;
+		}
+	}
+
+	private void put(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+		this.size += bytes.length;
+	}
+
+	private void put(byte b) {
+		ensureCapacity(1);
+		this.buffer[this.size++] = b;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (this.size + extra > this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+		}
+	}
+
+}
@@ -18,6 +18,10 @@ package io.pivotal.java.function.jdbc.consumer;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,7 +30,7 @@ import org.springframework.core.io.ByteArrayResource;
 
 /**
  * An in-memory script crafted for dropping-creating the table we're working with.
- * All columns are created as VARCHAR(2000).
+ * All columns are created as VARCHAR(2000), unless their SQL types are provided.
  *
  * @author Eric Bottard
  * @author Thomas Risberg
@@ -36,20 +40,31 @@ public class DefaultInitializationScriptResource extends ByteArrayResource {
 	private static final Log logger = LogFactory.getLog(DefaultInitializationScriptResource.class);
 
 	public DefaultInitializationScriptResource(String tableName, Collection<String> columns) {
-		super(scriptFor(tableName, columns).getBytes(StandardCharsets.UTF_8));
+		this(tableName, columns.stream()
+				.collect(Collectors.toMap(Function.identity(), column -> ColumnTypes.DEFAULT_DDL_TYPE,
+						(type1, type2) -> type1, LinkedHashMap::new)));
 	}
 
-	private static String scriptFor(String tableName, Collection<String> columns) {
+	/**
+	 * Create a script for the table with typed columns.
+	 * @param tableName the table name.
+	 * @param columnTypes the DDL types (e.g. {@code INTEGER}) of the columns, in the columns order.
+	 */
+	public DefaultInitializationScriptResource(String tableName, Map<String, String> columnTypes) {
+		super(scriptFor(tableName, columnTypes).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String scriptFor(String tableName, Map<String, String> columnTypes) {
 		StringBuilder result = new StringBuilder("DROP TABLE ");
 		result.append(tableName).append(";\n\n");
 
 		result.append("CREATE TABLE ").append(tableName).append('(');
 		int i = 0;
-		for (String column : columns) {
+		for (Map.Entry<String, String> column : columnTypes.entrySet()) {
 			if (i++ > 0) {
 				result.append(", ");
 			}
-			result.append(column).append(" VARCHAR(2000)");
+			result.append(column.getKey()).append(' ').append(column.getValue());
 		}
 		result.append(");\n");
 		logger.debug(String.format("Generated the following initializing script for table %s:\n%s", tableName,
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.springframework.util.Assert;
+
+/**
+ * The {@code INSERT} (or upsert, when key columns are provided) statement for the target table
+ * split into a head, a per-row {@code VALUES} template and a tail, so the same statement
+ * can be rendered for a single row or rewritten for multiple rows.
+ */
+final class InsertStatement {
+
+	private final String head;
+
+	private final String row;
+
+	private final String tail;
+
+	private final List<String> columns;
+
+	private final int[] keyIndexes;
+
+	private InsertStatement(String head, String row, String tail, List<String> columns, int[] keyIndexes) {
+		this.head = head;
+		this.row = row;
+		this.tail = tail;
+		this.columns = columns;
+		this.keyIndexes = keyIndexes;
+	}
+
+	/**
+	 * @return the indexes of the key columns in the columns list; empty for a plain {@code INSERT}.
+	 */
+	int[] getKeyIndexes() {
+		return this.keyIndexes;
+	}
+
+	List<String> getColumns() {
+		return this.columns;
+	}
+
+	String sql() {
+		return sql(1);
+	}
+
+	String sql(int rows) {
+		StringBuilder sql = new StringBuilder(this.head);
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(this.row);
+		}
+		return sql.append(this.tail).toString();
+	}
+
+	/**
+	 * Create a statement for the table.
+	 * @param tableName the table name.
+	 * @param columnNames the columns to insert.
+	 * @param keyColumns the columns to match existing rows on; an empty list for a plain {@code INSERT}.
+	 * @param dialect the upsert dialect; ignored if no key columns.
+	 * @param namedParameters whether to use {@code :column} placeholders instead of {@code ?}.
+	 * @return the statement.
+	 */
+	static InsertStatement of(String tableName, Collection<String> columnNames, List<String> keyColumns,
+			UpsertDialect dialect, boolean namedParameters) {
+
+		List<String> columns = new ArrayList<>(columnNames);
+		return of(tableName, columns, keyColumns, dialect,
+				index -> namedParameters ? ":" + columns.get(index) : "?");
+	}
+
+	/**
+	 * Create a statement for the table with the driver-specific bind markers.
+	 * @param tableName the table name.
+	 * @param columnNames the columns to insert.
+	 * @param keyColumns the columns to match existing rows on; an empty list for a plain {@code INSERT}.
+	 * @param dialect the upsert dialect; ignored if no key columns.
+	 * @param bindMarkers the function from a zero-based column index to its bind marker, e.g. {@code $1}.
+	 * @return the statement.
+	 */
+	static InsertStatement of(String tableName, Collection<String> columnNames, List<String> keyColumns,
+			UpsertDialect dialect, IntFunction<String> bindMarkers) {
+
+		List<String> columns = new ArrayList<>(columnNames);
+		String columnList = String.join(", ", columns);
+		String row = IntStream.range(0, columns.size())
+				.mapToObj(bindMarkers)
+				.collect(Collectors.joining(", ", "(", ")"));
+
+		if (keyColumns.isEmpty()) {
+			return new InsertStatement("INSERT INTO " + tableName + "(" + columnList + ") VALUES ", row, "",
+					columns, new int[0]);
+		}
+
+		Assert.isTrue(dialect != UpsertDialect.auto, "The 'auto' upsert dialect must be resolved");
+		int[] keyIndexes = new int[keyColumns.size()];
+		for (int i = 0; i < keyIndexes.length; i++) {
+			keyIndexes[i] = columns.indexOf(keyColumns.get(i));
+			Assert.isTrue(keyIndexes[i] >= 0,
+					() -> "The key columns " + keyColumns + " must be a subset of the columns " + columns);
+		}
+		List<String> valueColumns = columns.stream()
+				.filter(column -> !keyColumns.contains(column))
+				.collect(Collectors.toList());
+		String keyList = String.join(", ", keyColumns);
+
+		switch (dialect) {
+			case postgresql:
+				return new InsertStatement("INSERT INTO " + tableName + "(" + columnList + ") VALUES ", row,
+						" ON CONFLICT (" + keyList + ") " +
+								(valueColumns.isEmpty()
+										? "DO NOTHING"
+										: valueColumns.stream()
+										.map(column -> column + " = EXCLUDED." + column)
+										.collect(Collectors.joining(", ", "DO UPDATE SET ", ""))),
+						columns, keyIndexes);
+
+			case mysql:
+				return new InsertStatement("INSERT INTO " + tableName + "(" + columnList + ") VALUES ", row,
+						(valueColumns.isEmpty() ? columns : valueColumns).stream()
+								.map(column -> column + " = VALUES(" + column + ")")
+								.collect(Collectors.joining(", ", " ON DUPLICATE KEY UPDATE ", "")),
+						columns, keyIndexes);
+
+			case h2:
+				return new InsertStatement(
+						"MERGE INTO " + tableName + "(" + columnList + ") KEY(" + keyList + ") VALUES ", row, "",
+						columns, keyIndexes);
+
+			default:
+				String matched = valueColumns.isEmpty()
+						? ""
+						: valueColumns.stream()
+						.map(column -> column + " = s." + column)
+						.collect(Collectors.joining(", ", " WHEN MATCHED THEN UPDATE SET ", ""));
+				return new InsertStatement("MERGE INTO " + tableName + " USING (VALUES ", row,
+						") AS s(" + columnList + ") ON (" +
+								keyColumns.stream()
+										.map(column -> tableName + "." + column + " = s." + column)
+										.collect(Collectors.joining(" AND ")) + ")" +
+								matched +
+								" WHEN NOT MATCHED THEN INSERT (" + columnList + ") VALUES (" +
+								columns.stream().map(column -> "s." + column).collect(Collectors.joining(", ")) + ")",
+						columns, keyIndexes);
+		}
+	}
+
+}
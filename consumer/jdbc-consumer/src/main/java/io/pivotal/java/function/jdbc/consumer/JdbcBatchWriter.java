@@ -0,0 +1,372 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.integration.support.MutableMessage;
+import org.springframework.integration.support.channel.BeanFactoryChannelResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageHandler} which binds all the rows of an {@link Iterable} payload
+ * (e.g. a group released by the aggregator) into a single
+ * {@link PreparedStatement#addBatch()}/{@link PreparedStatement#executeBatch()} round trip.
+ * <p>
+ * Large groups can be committed in chunks of {@link #setCommitSize(int)} rows.
+ * With {@link #setRewriteBatchedInserts(boolean)} each chunk is sent as a multi-row
+ * {@code INSERT ... VALUES (...), (...)} statement instead, for drivers which don't
+ * optimize JDBC batches themselves.
+ * <p>
+ * With {@link #setFailedRowsChannelName(String)} a poison row doesn't fail the whole batch:
+ * only the failed rows are sent to that channel and the rest is committed.
+ */
+class JdbcBatchWriter implements MessageHandler, BeanFactoryAware {
+
+	/**
+	 * The PostgreSQL limit for bind parameters per statement.
+	 */
+	private static final int MAX_BIND_PARAMETERS = Short.MAX_VALUE;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final String tableName;
+
+	private final String[] columns;
+
+	private final PayloadConvertingParameterFactory parameterSourceFactory;
+
+	private final InsertStatement insertStatement;
+
+	private final String singleRowInsert;
+
+	private final Map<Integer, String> multiRowInserts = new ConcurrentHashMap<>();
+
+	private int commitSize;
+
+	private boolean rewriteBatchedInserts;
+
+	private String failedRowsChannelName;
+
+	private SampledTableInitializer tableInitializer;
+
+	private BeanFactory beanFactory;
+
+	private volatile MessageChannel failedRowsChannel;
+
+	JdbcBatchWriter(DataSource dataSource, String tableName, InsertStatement insertStatement,
+			PayloadConvertingParameterFactory parameterSourceFactory) {
+
+		Assert.notEmpty(insertStatement.getColumns(), "'columns' must not be empty");
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.tableName = tableName;
+		this.columns = insertStatement.getColumns().toArray(new String[0]);
+		this.parameterSourceFactory = parameterSourceFactory;
+		this.insertStatement = insertStatement;
+		this.singleRowInsert = insertStatement.sql();
+	}
+
+	/**
+	 * Set the number of rows to commit in one transaction.
+	 * Non-positive value (default) means the whole group is committed at once.
+	 * @param commitSize the number of rows per transaction.
+	 */
+	void setCommitSize(int commitSize) {
+		this.commitSize = commitSize;
+	}
+
+	/**
+	 * Whether to rewrite JDBC batches into multi-row {@code INSERT} statements.
+	 * For an upsert, rows with the same key in one statement are collapsed to the last one,
+	 * since some databases reject updating the same row twice in a single statement.
+	 * @param rewriteBatchedInserts true to send multi-row {@code INSERT} statements.
+	 */
+	void setRewriteBatchedInserts(boolean rewriteBatchedInserts) {
+		this.rewriteBatchedInserts = rewriteBatchedInserts;
+	}
+
+	/**
+	 * Set the name of the channel to send rows which failed to be written to, as an {@link ErrorMessage}.
+	 * When set, the failed rows of the batch are found (by update counts or bisecting)
+	 * and the rest of the batch is committed.
+	 * Otherwise (default) any failure fails the whole batch.
+	 * @param failedRowsChannelName the channel name.
+	 */
+	void setFailedRowsChannelName(String failedRowsChannelName) {
+		this.failedRowsChannelName = failedRowsChannelName;
+	}
+
+	/**
+	 * Set the initializer to create the table with the types inferred from the first written rows.
+	 * @param tableInitializer the initializer.
+	 */
+	void setTableInitializer(SampledTableInitializer tableInitializer) {
+		this.tableInitializer = tableInitializer;
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+	}
+
+	JdbcTemplate getJdbcTemplate() {
+		return this.jdbcTemplate;
+	}
+
+	@Override
+	public void handleMessage(Message<?> message) {
+		if (this.tableInitializer != null) {
+			this.tableInitializer.initialize(message);
+		}
+		List<Message<?>> rowMessages = rowMessages(message);
+		List<Object[]> rows = new ArrayList<>(rowMessages.size());
+		for (Message<?> rowMessage : rowMessages) {
+			rows.add(this.parameterSourceFactory.values(rowMessage));
+		}
+		int chunkSize = this.commitSize > 0 ? this.commitSize : rows.size();
+		try {
+			for (int from = 0; from < rows.size(); from += chunkSize) {
+				int to = Math.min(from + chunkSize, rows.size());
+				List<Object[]> chunk = rows.subList(from, to);
+				if (this.failedRowsChannelName != null) {
+					writeIsolatingFailures(rowMessages.subList(from, to), chunk);
+				}
+				else {
+					this.transactionTemplate.executeWithoutResult(status -> write(chunk));
+				}
+			}
+		}
+		catch (DataAccessException ex) {
+			throw new MessageHandlingException(message, "Failed to write into table '" + this.tableName + "'", ex);
+		}
+	}
+
+	void write(List<Object[]> rows) {
+		if (this.rewriteBatchedInserts) {
+			rows = lastPerKey(rows);
+			int rowsPerStatement = Math.max(1, MAX_BIND_PARAMETERS / this.columns.length);
+			for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+				List<Object[]> statementRows =
+						rows.subList(from, Math.min(from + rowsPerStatement, rows.size()));
+				this.jdbcTemplate.update(multiRowInsert(statementRows.size()), ps -> {
+					int[] sqlTypes = this.parameterSourceFactory.getSqlTypes();
+					int index = 1;
+					for (Object[] row : statementRows) {
+						index = bind(ps, row, index, sqlTypes);
+					}
+				});
+			}
+		}
+		else {
+			List<Object[]> batchRows = rows;
+			this.jdbcTemplate.execute(this.singleRowInsert, (PreparedStatementCallback<int[]>) ps -> {
+				int[] sqlTypes = this.parameterSourceFactory.getSqlTypes();
+				for (Object[] row : batchRows) {
+					bind(ps, row, 1, sqlTypes);
+					ps.addBatch();
+				}
+				try {
+					return ps.executeBatch();
+				}
+				catch (BatchUpdateException ex) {
+					DataAccessException translated = this.jdbcTemplate.getExceptionTranslator()
+							.translate("executeBatch", this.singleRowInsert, ex);
+					int failedRow = failedRowIndex(ex, batchRows.size());
+					if (translated != null && failedRow >= 0 && isRowFailure(translated)) {
+						throw new FailedRowException(translated, failedRow);
+					}
+					throw ex;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Write rows in a transaction; on a non-transient failure find the failed rows
+	 * by the JDBC batch update counts, if available, or by bisecting the rows,
+	 * commit the rest and send the failed rows to the {@link #failedRowsChannelName}.
+	 * @param rowMessages the messages rows are evaluated from.
+	 * @param rows the rows to write.
+	 */
+	private void writeIsolatingFailures(List<Message<?>> rowMessages, List<Object[]> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		try {
+			this.transactionTemplate.executeWithoutResult(status -> write(rows));
+		}
+		catch (DataAccessException ex) {
+			if (!isRowFailure(ex)) {
+				throw ex;
+			}
+			int size = rows.size();
+			Throwable cause = ex instanceof FailedRowException ? ex.getCause() : ex;
+			if (size == 1) {
+				sendFailedRow(rowMessages.get(0), cause);
+			}
+			else if (ex instanceof FailedRowException) {
+				int failedRow = ((FailedRowException) ex).failedRow;
+				writeIsolatingFailures(rowMessages.subList(0, failedRow), rows.subList(0, failedRow));
+				sendFailedRow(rowMessages.get(failedRow), cause);
+				writeIsolatingFailures(rowMessages.subList(failedRow + 1, size), rows.subList(failedRow + 1, size));
+			}
+			else {
+				int middle = size / 2;
+				writeIsolatingFailures(rowMessages.subList(0, middle), rows.subList(0, middle));
+				writeIsolatingFailures(rowMessages.subList(middle, size), rows.subList(middle, size));
+			}
+		}
+	}
+
+	private void sendFailedRow(Message<?> rowMessage, Throwable cause) {
+		if (this.failedRowsChannel == null) {
+			this.failedRowsChannel =
+					new BeanFactoryChannelResolver(this.beanFactory).resolveDestination(this.failedRowsChannelName);
+		}
+		this.failedRowsChannel.send(new ErrorMessage(
+				new MessageHandlingException(rowMessage, "Failed to write into table '" + this.tableName + "'",
+						cause)));
+	}
+
+	static List<Message<?>> rowMessages(Message<?> message) {
+		Object payload = message.getPayload();
+		if (payload instanceof Iterable) {
+			List<Message<?>> rowMessages =
+					payload instanceof Collection
+							? new ArrayList<>(((Collection<?>) payload).size())
+							: new ArrayList<>();
+			for (Object item : (Iterable<?>) payload) {
+				rowMessages.add(rowMessage(item, message.getHeaders()));
+			}
+			return rowMessages;
+		}
+		else {
+			return Collections.singletonList(message);
+		}
+	}
+
+	private String multiRowInsert(int rows) {
+		return this.multiRowInserts.computeIfAbsent(rows, this.insertStatement::sql);
+	}
+
+	private List<Object[]> lastPerKey(List<Object[]> rows) {
+		int[] keyIndexes = this.insertStatement.getKeyIndexes();
+		if (keyIndexes.length == 0) {
+			return rows;
+		}
+		Map<List<Object>, Object[]> rowsByKey = new LinkedHashMap<>(rows.size() * 2);
+		for (Object[] row : rows) {
+			Object[] key = new Object[keyIndexes.length];
+			for (int i = 0; i < keyIndexes.length; i++) {
+				key[i] = row[keyIndexes[i]];
+			}
+			rowsByKey.put(Arrays.asList(key), row);
+		}
+		return rowsByKey.size() == rows.size() ? rows : new ArrayList<>(rowsByKey.values());
+	}
+
+	private static Message<?> rowMessage(Object item, MessageHeaders headers) {
+		if (item instanceof Message) {
+			return (Message<?>) item;
+		}
+		return new MutableMessage<>(item, headers);
+	}
+
+	/**
+	 * Only deterministic failures are isolated: transient and resource ones fail the whole batch
+	 * to let it be redelivered.
+	 */
+	private static boolean isRowFailure(DataAccessException ex) {
+		return ex instanceof NonTransientDataAccessException && !(ex instanceof DataAccessResourceFailureException);
+	}
+
+	private static int failedRowIndex(BatchUpdateException ex, int size) {
+		int[] updateCounts = ex.getUpdateCounts();
+		if (updateCounts == null) {
+			return -1;
+		}
+		if (updateCounts.length < size) {
+			// The driver has stopped on the first failed statement
+			return updateCounts.length;
+		}
+		for (int i = 0; i < updateCounts.length; i++) {
+			if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int bind(PreparedStatement ps, Object[] row, int startIndex, int[] sqlTypes)
+			throws SQLException {
+
+		int index = startIndex;
+		for (int i = 0; i < row.length; i++) {
+			StatementCreatorUtils.setParameterValue(ps, index++,
+					sqlTypes != null ? sqlTypes[i] : SqlTypeValue.TYPE_UNKNOWN, row[i]);
+		}
+		return index;
+	}
+
+	/**
+	 * Carries the index of the failed row of a JDBC batch.
+	 */
+	private static final class FailedRowException extends NonTransientDataAccessException {
+
+		private final int failedRow;
+
+		FailedRowException(DataAccessException cause, int failedRow) {
+			super(cause.getMessage(), cause);
+			this.failedRow = failedRow;
+		}
+
+	}
+
+}
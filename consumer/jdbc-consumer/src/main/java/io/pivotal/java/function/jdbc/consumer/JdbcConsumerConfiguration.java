@@ -16,25 +16,30 @@
 
 package io.pivotal.java.function.jdbc.consumer;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+import java.util.function.Function;
 
 import javax.sql.DataSource;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import io.r2dbc.spi.ConnectionFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
 
 import org.springframework.beans.DirectFieldAccessor;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -43,7 +48,9 @@ import org.springframework.core.io.ResourceLoader;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.EvaluationException;
 import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
 import org.springframework.expression.spel.SpelParseException;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.integration.aggregator.CorrelationStrategy;
@@ -61,16 +68,17 @@ import org.springframework.integration.jdbc.SqlParameterSourceFactory;
 import org.springframework.integration.json.JsonPropertyAccessor;
 import org.springframework.integration.store.MessageGroupStore;
 import org.springframework.integration.store.SimpleMessageStore;
-import org.springframework.integration.support.MutableMessage;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.datasource.init.DataSourceInitializer;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHandler;
-import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.util.Assert;
 import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MimeTypeUtils;
 import org.springframework.util.MultiValueMap;
 
 /**
@@ -95,6 +103,9 @@ public class JdbcConsumerConfiguration {
 
 	private SpelExpressionParser spelExpressionParser = new SpelExpressionParser();
 
+	private SpelExpressionParser compilingSpelExpressionParser =
+			new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.IMMEDIATE, null));
+
 	private EvaluationContext evaluationContext;
 
 	public JdbcConsumerConfiguration(JdbcConsumerProperties properties, BeanFactory beanFactory) {
@@ -105,15 +116,24 @@ public class JdbcConsumerConfiguration {
 	}
 
 	@Bean
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "reactive", havingValue = "false", matchIfMissing = true)
 	IntegrationFlow jdbcConsumerFlow(@Qualifier("aggregator") MessageHandler aggregator,
-			JdbcMessageHandler jdbcMessageHandler) {
+			ObjectProvider<StripedBatchAccumulator> batchAccumulator,
+			ObjectProvider<PartitionedBatchAccumulator> partitionedBatchAccumulator,
+			JdbcMessageHandler jdbcMessageHandler, ObjectProvider<JdbcBatchWriter> jdbcBatchWriter) {
 
 		final IntegrationFlowBuilder builder =
 				IntegrationFlows.from(Consumer.class, gateway -> gateway.beanName("jdbcConsumer"));
-		if (properties.getBatchSize() > 1 || properties.getIdleTimeout() > 0) {
-			builder.handle(aggregator);
+		MessageHandler partitioned = partitionedBatchAccumulator.getIfAvailable();
+		if (partitioned != null) {
+			builder.handle(partitioned);
+		}
+		else if (properties.getBatchSize() > 1 || properties.getIdleTimeout() > 0) {
+			MessageHandler accumulator = batchAccumulator.getIfAvailable();
+			builder.handle(accumulator != null ? accumulator : aggregator);
 		}
-		return builder.handle(jdbcMessageHandler).get();
+		MessageHandler batchWriter = jdbcBatchWriter.getIfAvailable();
+		return builder.handle(batchWriter != null ? batchWriter : jdbcMessageHandler).get();
 	}
 
 	@Bean
@@ -131,6 +151,22 @@ public class JdbcConsumerConfiguration {
 		return aggregatorFactoryBean;
 	}
 
+	@Bean
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "batching", havingValue = "striped")
+	StripedBatchAccumulator batchAccumulator() {
+		return new StripedBatchAccumulator(this.properties.getBatchStripes(), this.properties.getBatchSize(),
+				this.properties.getIdleTimeout());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "batching", havingValue = "partitioned")
+	PartitionedBatchAccumulator partitionedBatchAccumulator() {
+		String partitionKeyExpression = this.properties.getPartitionKeyExpression();
+		return new PartitionedBatchAccumulator(this.properties.getPartitions(),
+				partitionKeyExpression != null ? this.spelExpressionParser.parseExpression(partitionKeyExpression) : null,
+				this.evaluationContext, Math.max(1, this.properties.getBatchSize()), this.properties.getIdleTimeout());
+	}
+
 	@Bean
 	MessageGroupStore messageGroupStore() {
 		SimpleMessageStore messageGroupStore = new SimpleMessageStore();
@@ -140,65 +176,104 @@ public class JdbcConsumerConfiguration {
 	}
 
 	@Bean
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "reactive", havingValue = "false", matchIfMissing = true)
 	public JdbcMessageHandler jdbcMessageHandler(DataSource dataSource) {
-		final MultiValueMap<String, Expression> columnExpressionVariations = new LinkedMultiValueMap<>();
-		for (Map.Entry<String, String> entry : this.properties.getColumnsMap().entrySet()) {
-			String value = entry.getValue();
-			columnExpressionVariations.add(entry.getKey(), this.spelExpressionParser.parseExpression(value));
-			if (!value.startsWith("payload")) {
-				String qualified = "payload." + value;
-				try {
-					columnExpressionVariations.add(entry.getKey(),
-							this.spelExpressionParser.parseExpression(qualified));
-				}
-				catch (SpelParseException e) {
-					logger.info("failed to parse qualified fallback expression " + qualified +
-							"; be sure your expression uses the 'payload.' prefix where necessary");
-				}
-			}
-		}
+		final MultiValueMap<String, Expression> columnExpressionVariations =
+				columnExpressionVariations(this.properties.getColumnsMap(), this.spelExpressionParser);
+		PayloadConvertingParameterFactory parameterSourceFactory =
+				parameterSourceFactory(columnExpressionVariations, this.properties.isCompileExpressions());
+		SampledTableInitializer tableInitializer = tableInitializer(dataSource, parameterSourceFactory);
 		JdbcMessageHandler jdbcMessageHandler = new JdbcMessageHandler(dataSource,
-				generateSql(this.properties.getTableName(), columnExpressionVariations.keySet())) {
+				insertStatement(dataSource, columnExpressionVariations.keySet(), true).sql()) {
 
 			@Override
-			protected void handleMessageInternal(final Message<?> message) {
-				Message<?> convertedMessage = message;
-				if (message.getPayload() instanceof byte[] || message.getPayload() instanceof Iterable) {
-
-					final String contentType = message.getHeaders().containsKey(MessageHeaders.CONTENT_TYPE)
-							? message.getHeaders().get(MessageHeaders.CONTENT_TYPE).toString()
-							: MimeTypeUtils.APPLICATION_JSON_VALUE;
-					if (message.getPayload() instanceof Iterable) {
-						Stream<Object> messageStream =
-								StreamSupport.stream(((Iterable<?>) message.getPayload()).spliterator(), false)
-										.map(payload -> {
-											if (payload instanceof byte[]) {
-												return convertibleContentType(contentType) ?
-														new String(((byte[]) payload)) : payload;
-											}
-											else {
-												return payload;
-											}
-										});
-						convertedMessage = new MutableMessage<>(messageStream.collect(Collectors.toList()),
-								message.getHeaders());
-					}
-					else {
-						if (convertibleContentType(contentType)) {
-							convertedMessage = new MutableMessage<>(new String(((byte[]) message.getPayload())),
-									message.getHeaders());
-						}
-					}
+			protected void handleMessageInternal(Message<?> message) {
+				if (tableInitializer != null) {
+					tableInitializer.initialize(message);
 				}
-				super.handleMessageInternal(convertedMessage);
+				super.handleMessageInternal(message);
 			}
+
 		};
-		SqlParameterSourceFactory parameterSourceFactory =
-				new ParameterFactory(columnExpressionVariations, this.evaluationContext);
 		jdbcMessageHandler.setSqlParameterSourceFactory(parameterSourceFactory);
 		return jdbcMessageHandler;
 	}
 
+	@Bean
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "write-mode", havingValue = "batch")
+	JdbcBatchWriter jdbcBatchWriter(DataSource dataSource) {
+		MultiValueMap<String, Expression> columnExpressionVariations =
+				columnExpressionVariations(this.properties.getColumnsMap(), this.spelExpressionParser);
+		PayloadConvertingParameterFactory parameterSourceFactory =
+				parameterSourceFactory(columnExpressionVariations, this.properties.isCompileExpressions());
+		JdbcBatchWriter jdbcBatchWriter = new JdbcBatchWriter(dataSource, this.properties.getTableName(),
+				insertStatement(dataSource, columnExpressionVariations.keySet(), false), parameterSourceFactory);
+		jdbcBatchWriter.setTableInitializer(tableInitializer(dataSource, parameterSourceFactory));
+		jdbcBatchWriter.setCommitSize(this.properties.getCommitSize());
+		jdbcBatchWriter.setRewriteBatchedInserts(this.properties.isRewriteBatchedInserts());
+		jdbcBatchWriter.setFailedRowsChannelName(this.properties.getFailedRowsChannel());
+		return jdbcBatchWriter;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "write-mode", havingValue = "copy")
+	JdbcCopyWriter jdbcCopyWriter(DataSource dataSource) {
+		MultiValueMap<String, Expression> columnExpressionVariations =
+				columnExpressionVariations(this.properties.getColumnsMap(), this.spelExpressionParser);
+		// Always compiled: rows are evaluated into value arrays without MapSqlParameterSource
+		PayloadConvertingParameterFactory parameterSourceFactory =
+				parameterSourceFactory(columnExpressionVariations, true);
+		JdbcCopyWriter jdbcCopyWriter = new JdbcCopyWriter(dataSource, this.properties.getTableName(),
+				insertStatement(dataSource, columnExpressionVariations.keySet(), false), parameterSourceFactory);
+		jdbcCopyWriter.setTableInitializer(tableInitializer(dataSource, parameterSourceFactory));
+		jdbcCopyWriter.setCommitSize(this.properties.getCommitSize());
+		jdbcCopyWriter.setRewriteBatchedInserts(this.properties.isRewriteBatchedInserts());
+		jdbcCopyWriter.setFailedRowsChannelName(this.properties.getFailedRowsChannel());
+		return jdbcCopyWriter;
+	}
+
+	PayloadConvertingParameterFactory parameterSourceFactory(
+			MultiValueMap<String, Expression> columnExpressionVariations, boolean compiled) {
+
+		SqlParameterSourceFactory parameterSourceFactory;
+		if (compiled) {
+			MultiValueMap<String, Expression> compiledExpressionVariations =
+					columnExpressionVariations(this.properties.getColumnsMap(), this.compilingSpelExpressionParser);
+			parameterSourceFactory = new CompiledParameterFactory(columnExpressionVariations,
+					compiledExpressionVariations, this.evaluationContext);
+		}
+		else {
+			parameterSourceFactory = new ParameterFactory(columnExpressionVariations, this.evaluationContext);
+		}
+		PayloadConvertingParameterFactory payloadConvertingParameterFactory =
+				new PayloadConvertingParameterFactory(parameterSourceFactory, this.properties.getColumnsMap(),
+						this.properties.isStreamJson());
+		if (!this.properties.getColumnTypesMap().isEmpty()) {
+			payloadConvertingParameterFactory.setSqlTypes(columnTypes().getSqlTypes());
+		}
+		return payloadConvertingParameterFactory;
+	}
+
+	private ColumnTypes columnTypes() {
+		return ColumnTypes.declared(this.properties.getColumnsMap().keySet(), this.properties.getColumnTypesMap());
+	}
+
+	private SampledTableInitializer tableInitializer(DataSource dataSource,
+			PayloadConvertingParameterFactory parameterSourceFactory) {
+
+		if ("true".equals(this.properties.getInitialize()) && this.properties.getTypeSamples() > 0) {
+			Assert.isTrue(this.properties.getTypeSamples() <= Math.max(1, this.properties.getBatchSize()),
+					() -> "The 'jdbc.consumer.type-samples' (" + this.properties.getTypeSamples() +
+							") must not be greater than the 'jdbc.consumer.batch-size' (" +
+							this.properties.getBatchSize() + "): the types are inferred from the rows " +
+							"of the first written message or group only");
+			return new SampledTableInitializer(dataSource, this.properties.getTableName(),
+					this.properties.getColumnsMap().keySet(), this.properties.getColumnTypesMap(),
+					this.properties.getTypeSamples(), parameterSourceFactory);
+		}
+		return null;
+	}
+
 	@ConditionalOnProperty("jdbc.consumer.initialize")
 	@Bean
 	public DataSourceInitializer nonBootDataSourceInitializer(DataSource dataSource, ResourceLoader resourceLoader) {
@@ -210,7 +285,9 @@ public class JdbcConsumerConfiguration {
 		if ("true".equals(properties.getInitialize())) {
 			databasePopulator.addScript(
 					new DefaultInitializationScriptResource(this.properties.getTableName(),
-							this.properties.getColumnsMap().keySet()));
+							columnTypes().getDdlTypes()));
+			// The table is created with the inferred types on the first write instead
+			dataSourceInitializer.setEnabled(this.properties.getTypeSamples() <= 0);
 		}
 		else {
 			databasePopulator.addScript(resourceLoader.getResource(this.properties.getInitialize()));
@@ -223,29 +300,140 @@ public class JdbcConsumerConfiguration {
 		return new ShorthandMapConverter();
 	}
 
-	private static boolean convertibleContentType(String contentType) {
-		return contentType.contains("text") || contentType.contains("json") || contentType.contains("x-spring-tuple");
+	static MultiValueMap<String, Expression> columnExpressionVariations(Map<String, String> columns,
+			SpelExpressionParser parser) {
+
+		MultiValueMap<String, Expression> columnExpressionVariations = new LinkedMultiValueMap<>();
+		for (Map.Entry<String, String> entry : columns.entrySet()) {
+			String value = entry.getValue();
+			columnExpressionVariations.add(entry.getKey(), parser.parseExpression(value));
+			if (!value.startsWith("payload")) {
+				String qualified = "payload." + value;
+				try {
+					columnExpressionVariations.add(entry.getKey(), parser.parseExpression(qualified));
+				}
+				catch (SpelParseException e) {
+					logger.info("failed to parse qualified fallback expression " + qualified +
+							"; be sure your expression uses the 'payload.' prefix where necessary");
+				}
+			}
+		}
+		return columnExpressionVariations;
+	}
+
+	private InsertStatement insertStatement(DataSource dataSource, Set<String> columns, boolean namedParameters) {
+		List<String> keyColumns = this.properties.getKeyColumns();
+		UpsertDialect dialect = this.properties.getUpsertDialect();
+		if (!keyColumns.isEmpty() && dialect == UpsertDialect.auto) {
+			try {
+				String productName = JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName");
+				dialect = UpsertDialect.fromDatabaseProductName(productName);
+			}
+			catch (MetaDataAccessException ex) {
+				throw new IllegalStateException("Cannot detect the upsert dialect; consider to configure " +
+						"'jdbc.consumer.upsert-dialect' explicitly", ex);
+			}
+		}
+		return InsertStatement.of(this.properties.getTableName(), columns, keyColumns, dialect, namedParameters);
 	}
 
-	private static String generateSql(String tableName, Set<String> columns) {
-		StringBuilder builder = new StringBuilder("INSERT INTO ");
-		StringBuilder questionMarks = new StringBuilder(") VALUES (");
-		builder.append(tableName).append("(");
-		int i = 0;
+	/**
+	 * The reactive variant: a {@code Function<Flux<Message<?>>, Mono<Void>>} which writes
+	 * batches of up to 'batch-size' messages (or whatever has arrived within 'idle-timeout')
+	 * through R2DBC, with at most 'max-in-flight' statements executed concurrently.
+	 */
+	@Configuration
+	@ConditionalOnClass(ConnectionFactory.class)
+	@ConditionalOnProperty(prefix = "jdbc.consumer", name = "reactive", havingValue = "true")
+	static class R2dbcConsumerConfiguration {
+
+		/**
+		 * The marker to end a partial batch on 'idle-timeout'.
+		 */
+		private static final Message<?> FLUSH = new GenericMessage<>("flush");
+
+		private final JdbcConsumerProperties properties;
+
+		R2dbcConsumerConfiguration(JdbcConsumerProperties properties) {
+			this.properties = properties;
+		}
 
-		for (String column : columns) {
-			if (i++ > 0) {
-				builder.append(", ");
-				questionMarks.append(", ");
+		@Bean
+		public Function<Flux<Message<?>>, Mono<Void>> r2dbcConsumer(R2dbcBatchWriter r2dbcBatchWriter) {
+			return batchingConsumer(r2dbcBatchWriter::write, Math.max(1, this.properties.getBatchSize()),
+					this.properties.getIdleTimeout(), this.properties.getMaxInFlight());
+		}
+
+		/**
+		 * Write batches of up to 'batchSize' messages with at most 'maxInFlight' writes at a time.
+		 * The upstream is requested only for as many messages as the pending batches need,
+		 * so slow writes slow down the upstream instead of queuing messages in memory.
+		 * With a positive 'idleTimeout' a partial batch is written after at most that time.
+		 * The 'bufferTimeout()' is not used since it may emit more batches than requested,
+		 * which then have to be buffered without bounds.
+		 */
+		static Function<Flux<Message<?>>, Mono<Void>> batchingConsumer(Function<List<Message<?>>, Mono<Void>> writer,
+				int batchSize, long idleTimeout, int maxInFlight) {
+
+			return messages -> {
+				Flux<List<Message<?>>> batches;
+				if (idleTimeout > 0) {
+					batches = Flux.defer(() -> {
+						MonoProcessor<Void> completion = MonoProcessor.create();
+						Flux<Message<?>> flushes =
+								Flux.interval(Duration.ofMillis(idleTimeout))
+										.onBackpressureDrop()
+										.<Message<?>>map(tick -> FLUSH)
+										.takeUntilOther(completion);
+						int[] size = { 0 };
+						return Flux.merge(messages.doFinally(signal -> completion.onComplete()), flushes)
+								.bufferUntil(message -> {
+									if (message == FLUSH || ++size[0] == batchSize) {
+										size[0] = 0;
+										return true;
+									}
+									return false;
+								})
+								.doOnNext(batch -> {
+									if (batch.get(batch.size() - 1) == FLUSH) {
+										batch.remove(batch.size() - 1);
+									}
+								})
+								.filter(batch -> !batch.isEmpty());
+					});
+				}
+				else {
+					batches = messages.buffer(batchSize);
+				}
+				return batches
+						.flatMap(writer, maxInFlight)
+						.then();
+			};
+		}
+
+		@Bean
+		R2dbcBatchWriter r2dbcBatchWriter(ConnectionFactory connectionFactory,
+				JdbcConsumerConfiguration jdbcConsumerConfiguration) {
+
+			String databaseName = connectionFactory.getMetadata().getName();
+			UpsertDialect dialect = this.properties.getUpsertDialect();
+			if (dialect == UpsertDialect.auto) {
+				dialect = UpsertDialect.fromDatabaseProductName(databaseName);
 			}
-			builder.append(column);
-			questionMarks.append(':').append(column);
+			MultiValueMap<String, Expression> columnExpressionVariations =
+					columnExpressionVariations(this.properties.getColumnsMap(),
+							jdbcConsumerConfiguration.spelExpressionParser);
+			InsertStatement insertStatement =
+					InsertStatement.of(this.properties.getTableName(), columnExpressionVariations.keySet(),
+							this.properties.getKeyColumns(), dialect, R2dbcBatchWriter.bindMarkers(databaseName));
+			return new R2dbcBatchWriter(connectionFactory, insertStatement,
+					jdbcConsumerConfiguration.parameterSourceFactory(columnExpressionVariations,
+							this.properties.isCompileExpressions()));
 		}
-		builder.append(questionMarks).append(")");
-		return builder.toString();
+
 	}
 
-	private static final class ParameterFactory implements SqlParameterSourceFactory {
+	static final class ParameterFactory implements SqlParameterSourceFactory {
 
 		private final MultiValueMap<String, Expression> columnExpressions;
 
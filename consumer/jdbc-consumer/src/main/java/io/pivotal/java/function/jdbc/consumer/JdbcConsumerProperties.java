@@ -16,6 +16,8 @@
 
 package io.pivotal.java.function.jdbc.consumer;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,6 +50,22 @@ public class JdbcConsumerProperties {
 	 */
 	private String initialize = "false";
 
+	/**
+	 * The comma separated colon-based pairs of column names and SQL types (e.g. 'b:INTEGER,c:TIMESTAMP')
+	 * for the table created by 'initialize=true' and to bind the values with; other columns are VARCHAR(2000).
+	 * Commas inside a type must be escaped with a backslash, like in 'c:DECIMAL(10\,2)'.
+	 */
+	private String columnTypes = "";
+
+	/**
+	 * The number of rows of the first written message (or group) to infer the SQL types of the columns
+	 * without a declared type from; must not be greater than 'batch-size', and a group released by
+	 * 'idle-timeout' may provide fewer rows. Types are not inferred by default.
+	 * With 'initialize=true' the table is then dropped and created on the first write, on the thread
+	 * handling that message, instead of on startup; rows already in the table are lost.
+	 */
+	private int typeSamples;
+
 	/**
 	 * Threshold in number of messages when data will be flushed to database table.
 	 */
@@ -58,8 +76,95 @@ public class JdbcConsumerProperties {
 	 */
 	private long idleTimeout = -1L;
 
+	/**
+	 * How to group messages into batches: 'aggregator' - correlated by payload type in a message store;
+	 * 'striped' - lock-free in-memory buffers selected by the producer thread;
+	 * 'partitioned' - writer lanes selected by the partition key, written concurrently.
+	 */
+	private BatchingMode batching = BatchingMode.aggregator;
+
+	/**
+	 * The number of in-memory buffers for the 'striped' batching.
+	 */
+	private int batchStripes = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of writer lanes for the 'partitioned' batching;
+	 * the connection pool should allow at least as many connections.
+	 */
+	private int partitions = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The SpEL expression for the key to partition messages by in the 'partitioned' batching;
+	 * messages with the same key are written in order. Messages are distributed round-robin if not set.
+	 */
+	private String partitionKeyExpression;
+
+	/**
+	 * Whether to expose the reactive 'r2dbcConsumer' function, which writes through an R2DBC
+	 * 'ConnectionFactory', instead of the blocking 'jdbcConsumer'.
+	 */
+	private boolean reactive;
+
+	/**
+	 * The maximum number of batch statements executed concurrently by the reactive 'r2dbcConsumer'.
+	 */
+	private int maxInFlight = 8;
+
+	/**
+	 * The mode of writing into the table: 'handler' - via 'JdbcMessageHandler';
+	 * 'batch' - a whole released group as a single JDBC batch;
+	 * 'copy' - a whole released group is streamed via PostgreSQL 'COPY FROM STDIN' (falls back to 'batch').
+	 */
+	private WriteMode writeMode = WriteMode.handler;
+
+	/**
+	 * The number of rows committed in one transaction in the 'batch' and 'copy' write modes.
+	 * Non-positive value means the whole released group is committed at once.
+	 */
+	private int commitSize;
+
+	/**
+	 * Whether to rewrite a JDBC batch into multi-row 'INSERT ... VALUES (...), (...)' statements
+	 * in the 'batch' write mode.
+	 */
+	private boolean rewriteBatchedInserts;
+
+	/**
+	 * The name of the channel to send rows which failed to be written to, as error messages,
+	 * in the 'batch' and 'copy' write modes.
+	 * When set, only the failed rows (found by JDBC batch update counts or by bisecting the batch)
+	 * are rejected and the rest of the batch is committed; otherwise any failure fails the whole batch.
+	 */
+	private String failedRowsChannel;
+
+	/**
+	 * The columns to match existing rows on; when provided, rows are upserted instead of inserted.
+	 * Must be a subset of the 'columns' names.
+	 */
+	private List<String> keyColumns = new ArrayList<>();
+
+	/**
+	 * The SQL dialect for an upsert when 'key-columns' are provided; detected from the database by default.
+	 */
+	private UpsertDialect upsertDialect = UpsertDialect.auto;
+
+	/**
+	 * Whether to compile column SpEL expressions and remember which expression variation
+	 * (bare or 'payload.'-qualified) resolves each column for subsequent messages.
+	 */
+	private boolean compileExpressions;
+
+	/**
+	 * Whether to read the columns of JSON 'byte[]' payloads with a streaming parser instead of decoding
+	 * each payload into a String for SpEL; applied only if all the column expressions are plain property paths.
+	 */
+	private boolean streamJson = true;
+
 	private Map<String, String> columnsMap;
 
+	private Map<String, String> columnTypesMap;
+
 	public String getTableName() {
 		return this.tableName;
 	}
@@ -84,6 +189,22 @@ public class JdbcConsumerProperties {
 		this.initialize = initialize;
 	}
 
+	public String getColumnTypes() {
+		return this.columnTypes;
+	}
+
+	public void setColumnTypes(String columnTypes) {
+		this.columnTypes = columnTypes;
+	}
+
+	public int getTypeSamples() {
+		return this.typeSamples;
+	}
+
+	public void setTypeSamples(int typeSamples) {
+		this.typeSamples = typeSamples;
+	}
+
 	public int getBatchSize() {
 		return this.batchSize;
 	}
@@ -100,6 +221,125 @@ public class JdbcConsumerProperties {
 		this.idleTimeout = idleTimeout;
 	}
 
+	public BatchingMode getBatching() {
+		return this.batching;
+	}
+
+	public void setBatching(BatchingMode batching) {
+		this.batching = batching;
+	}
+
+	public int getBatchStripes() {
+		return this.batchStripes;
+	}
+
+	public void setBatchStripes(int batchStripes) {
+		this.batchStripes = batchStripes;
+	}
+
+	public int getPartitions() {
+		return this.partitions;
+	}
+
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public String getPartitionKeyExpression() {
+		return this.partitionKeyExpression;
+	}
+
+	public void setPartitionKeyExpression(String partitionKeyExpression) {
+		this.partitionKeyExpression = partitionKeyExpression;
+	}
+
+	public boolean isReactive() {
+		return this.reactive;
+	}
+
+	public void setReactive(boolean reactive) {
+		this.reactive = reactive;
+	}
+
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public WriteMode getWriteMode() {
+		return this.writeMode;
+	}
+
+	public void setWriteMode(WriteMode writeMode) {
+		this.writeMode = writeMode;
+	}
+
+	public int getCommitSize() {
+		return this.commitSize;
+	}
+
+	public void setCommitSize(int commitSize) {
+		this.commitSize = commitSize;
+	}
+
+	public boolean isRewriteBatchedInserts() {
+		return this.rewriteBatchedInserts;
+	}
+
+	public void setRewriteBatchedInserts(boolean rewriteBatchedInserts) {
+		this.rewriteBatchedInserts = rewriteBatchedInserts;
+	}
+
+	public String getFailedRowsChannel() {
+		return this.failedRowsChannel;
+	}
+
+	public void setFailedRowsChannel(String failedRowsChannel) {
+		this.failedRowsChannel = failedRowsChannel;
+	}
+
+	public List<String> getKeyColumns() {
+		return this.keyColumns;
+	}
+
+	public void setKeyColumns(List<String> keyColumns) {
+		this.keyColumns = keyColumns;
+	}
+
+	public UpsertDialect getUpsertDialect() {
+		return this.upsertDialect;
+	}
+
+	public void setUpsertDialect(UpsertDialect upsertDialect) {
+		this.upsertDialect = upsertDialect;
+	}
+
+	public boolean isCompileExpressions() {
+		return this.compileExpressions;
+	}
+
+	public void setCompileExpressions(boolean compileExpressions) {
+		this.compileExpressions = compileExpressions;
+	}
+
+	public boolean isStreamJson() {
+		return this.streamJson;
+	}
+
+	public void setStreamJson(boolean streamJson) {
+		this.streamJson = streamJson;
+	}
+
+	Map<String, String> getColumnTypesMap() {
+		if (this.columnTypesMap == null) {
+			this.columnTypesMap = this.shorthandMapConverter.convert(this.columnTypes);
+		}
+		return this.columnTypesMap;
+	}
+
 	Map<String, String> getColumnsMap() {
 		if (this.columnsMap == null) {
 			this.columnsMap = this.shorthandMapConverter.convert(this.columns);
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * A {@link JdbcBatchWriter} extension which streams rows into the table via the
+ * PostgreSQL {@code COPY ... FROM STDIN} protocol using a per-thread reusable {@link CopyEncoder}.
+ * <p>
+ * If the PostgreSQL driver is not on the classpath or the target connection is not a
+ * PostgreSQL one, the rows are written by the regular JDBC batch.
+ */
+class JdbcCopyWriter extends JdbcBatchWriter {
+
+	private static final Log logger = LogFactory.getLog(JdbcCopyWriter.class);
+
+	private static final boolean POSTGRESQL_PRESENT =
+			ClassUtils.isPresent("org.postgresql.PGConnection", JdbcCopyWriter.class.getClassLoader());
+
+	private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+	private final ThreadLocal<CopyEncoder> encoders = ThreadLocal.withInitial(CopyEncoder::new);
+
+	private final String copySql;
+
+	private volatile boolean copyUnsupported;
+
+	JdbcCopyWriter(DataSource dataSource, String tableName, InsertStatement insertStatement,
+			PayloadConvertingParameterFactory parameterSourceFactory) {
+
+		super(dataSource, tableName, insertStatement, parameterSourceFactory);
+		Assert.isTrue(insertStatement.getKeyIndexes().length == 0, "The 'COPY' doesn't support key columns");
+		this.copySql = "COPY " + tableName + " (" + String.join(", ", insertStatement.getColumns()) +
+				") FROM STDIN WITH (FORMAT csv)";
+	}
+
+	@Override
+	void write(List<Object[]> rows) {
+		if (!this.copyUnsupported) {
+			Boolean copied = getJdbcTemplate().execute((ConnectionCallback<Boolean>) connection -> {
+				if (POSTGRESQL_PRESENT && PostgresCopy.isPostgres(connection)) {
+					PostgresCopy.copy(connection, this.copySql, this.encoders.get(), rows);
+					return true;
+				}
+				return false;
+			});
+			if (Boolean.TRUE.equals(copied)) {
+				return;
+			}
+			this.copyUnsupported = true;
+			logger.warn("The target database doesn't support 'COPY FROM STDIN'; falling back to JDBC batch");
+		}
+		super.write(rows);
+	}
+
+	/**
+	 * Isolates the PostgreSQL driver API, so it is loaded only when present on the classpath.
+	 */
+	private static final class PostgresCopy {
+
+		static boolean isPostgres(Connection connection) throws SQLException {
+			return connection.isWrapperFor(PGConnection.class);
+		}
+
+		static long copy(Connection connection, String sql, CopyEncoder encoder, List<Object[]> rows)
+				throws SQLException {
+
+			CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+			try {
+				for (Object[] row : rows) {
+					encoder.encode(row);
+					if (encoder.size() >= FLUSH_THRESHOLD) {
+						copyIn.writeToCopy(encoder.buffer(), 0, encoder.size());
+						encoder.reset();
+					}
+				}
+				if (encoder.size() > 0) {
+					copyIn.writeToCopy(encoder.buffer(), 0, encoder.size());
+				}
+				return copyIn.endCopy();
+			}
+			finally {
+				encoder.reset();
+				if (copyIn.isActive()) {
+					copyIn.cancelCopy();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Extracts column values from a JSON {@code byte[]} in a single pass of a Jackson streaming parser,
+ * without decoding the payload into a {@code String} or building a {@code JsonNode} tree.
+ * Only the mapped properties are read, the rest of the document is skipped and
+ * the parsing stops as soon as all the mapped properties have been found.
+ * <p>
+ * Applicable only if every column expression is a plain property path, like {@code a}, {@code a.b}
+ * or {@code payload.a.b}; see {@link #of(Map)}.
+ * The values are the same as produced by the {@code JsonPropertyAccessor} for these expressions:
+ * numbers, booleans and text for scalar properties and {@code null} for missing properties,
+ * objects and arrays.
+ * <p>
+ * Thread-safe.
+ */
+final class JsonColumnExtractor {
+
+	private static final Log logger = LogFactory.getLog(JsonColumnExtractor.class);
+
+	private static final Pattern PROPERTY_PATH = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final PathNode root = new PathNode();
+
+	private final int columnCount;
+
+	private int propertyCount;
+
+	private JsonColumnExtractor(int columnCount) {
+		this.columnCount = columnCount;
+	}
+
+	/**
+	 * Evaluate all the columns for the JSON document.
+	 * @param json the JSON document.
+	 * @param charset the charset of the document.
+	 * @return the column values ordered as the columns the extractor was created for.
+	 */
+	Object[] values(byte[] json, Charset charset) {
+		Object[] values = new Object[this.columnCount];
+		try (JsonParser parser = createParser(json, charset)) {
+			if (parser.nextToken() == JsonToken.START_OBJECT) {
+				readObject(parser, this.root, values, this.propertyCount);
+			}
+		}
+		catch (IOException ex) {
+			logger.info("Could not extract column values from JSON: " + ex.getMessage());
+		}
+		return values;
+	}
+
+	private void addColumn(String[] path, int column) {
+		PathNode node = this.root;
+		for (String property : path) {
+			node = node.children.computeIfAbsent(property, key -> new PathNode());
+		}
+		if (node.columns.length == 0) {
+			this.propertyCount++;
+		}
+		node.columns = Arrays.copyOf(node.columns, node.columns.length + 1);
+		node.columns[node.columns.length - 1] = column;
+	}
+
+	/**
+	 * Create an extractor for the column expressions.
+	 * @param columns the column expressions in the {@code jdbc.consumer.columns} format.
+	 * @return the extractor, or {@code null} if any of the expressions is not a plain property path.
+	 */
+	static JsonColumnExtractor of(Map<String, String> columns) {
+		JsonColumnExtractor extractor = new JsonColumnExtractor(columns.size());
+		int column = 0;
+		for (String expression : columns.values()) {
+			String[] path = propertyPath(expression);
+			if (path == null) {
+				return null;
+			}
+			extractor.addColumn(path, column++);
+		}
+		return extractor;
+	}
+
+	private static String[] propertyPath(String expression) {
+		String path = expression.trim();
+		if (!PROPERTY_PATH.matcher(path).matches()) {
+			return null;
+		}
+		if (path.startsWith("payload.")) {
+			path = path.substring("payload.".length());
+		}
+		String[] properties = path.split("\\.");
+		String first = properties[0];
+		// Resolved against the message itself or SpEL literals
+		if ("payload".equals(first) || "headers".equals(first) || "true".equalsIgnoreCase(first)
+				|| "false".equalsIgnoreCase(first) || "null".equalsIgnoreCase(first)) {
+
+			return null;
+		}
+		return properties;
+	}
+
+	private static JsonParser createParser(byte[] json, Charset charset) throws IOException {
+		if (StandardCharsets.UTF_8.equals(charset)) {
+			return JSON_FACTORY.createParser(json);
+		}
+		else {
+			return JSON_FACTORY.createParser(new InputStreamReader(new ByteArrayInputStream(json), charset));
+		}
+	}
+
+	/**
+	 * Read the current object into the values of the columns mapped to its properties.
+	 * @return the number of mapped properties still to be found.
+	 */
+	private static int readObject(JsonParser parser, PathNode node, Object[] values, int remaining)
+			throws IOException {
+
+		int stillRemaining = remaining;
+		while (stillRemaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+			PathNode child = node.children.get(parser.getCurrentName());
+			JsonToken token = parser.nextToken();
+			if (child == null) {
+				parser.skipChildren();
+				continue;
+			}
+			if (child.columns.length > 0) {
+				Object value = scalarValue(parser, token);
+				for (int column : child.columns) {
+					values[column] = value;
+				}
+				stillRemaining--;
+			}
+			if (token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+				stillRemaining = readObject(parser, child, values, stillRemaining);
+			}
+			else {
+				parser.skipChildren();
+			}
+		}
+		return stillRemaining;
+	}
+
+	private static Object scalarValue(JsonParser parser, JsonToken token) throws IOException {
+		switch (token) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return parser.getNumberValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_EMBEDDED_OBJECT:
+				return parser.getEmbeddedObject();
+			default:
+				return null;
+		}
+	}
+
+	private static final class PathNode {
+
+		private final Map<String, PathNode> children = new HashMap<>();
+
+		private int[] columns = new int[0];
+
+	}
+
+}
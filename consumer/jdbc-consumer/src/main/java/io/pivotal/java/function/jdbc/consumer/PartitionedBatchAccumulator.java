@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.integration.channel.MessagePublishingErrorHandler;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Hash-partitions messages by a key expression onto a number of writer lanes.
+ * <p>
+ * Each lane accumulates its own batch, released as a {@code List} payload with the headers of its
+ * first message when it is full or when no messages have been added to it for the idle timeout.
+ * Released batches are written downstream by the lane's own thread, so lanes write concurrently,
+ * each on its own pooled connection, while the batches of the same lane - and therefore the messages
+ * with the same key - are written in order.
+ * <p>
+ * The producer which fills a batch waits for the lane to write it and gets its failure,
+ * so the batch is not acknowledged before it is written.
+ * The lane lock is only held to append to the batch and to hand it off to the lane.
+ * A batch released by the idle timeout is written by the lane's thread with no producer
+ * waiting for it, so its failure is published to the {@code errorChannel}.
+ */
+class PartitionedBatchAccumulator extends AbstractMessageProducingHandler implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(PartitionedBatchAccumulator.class);
+
+	private final Lane[] lanes;
+
+	private final Expression partitionKeyExpression;
+
+	private final EvaluationContext evaluationContext;
+
+	private final int batchSize;
+
+	private final long idleTimeout;
+
+	private final AtomicInteger roundRobin = new AtomicInteger();
+
+	private final MessagePublishingErrorHandler errorHandler = new MessagePublishingErrorHandler();
+
+	/**
+	 * Create an accumulator.
+	 * @param partitions the number of lanes.
+	 * @param partitionKeyExpression the expression for the partition key against a message;
+	 * if {@code null}, messages are distributed round-robin with no ordering guarantee.
+	 * @param evaluationContext the context to evaluate the key expression.
+	 * @param batchSize the number of messages in a batch.
+	 * @param idleTimeout the time in milliseconds to release a batch after the last message added to it.
+	 */
+	PartitionedBatchAccumulator(int partitions, Expression partitionKeyExpression,
+			EvaluationContext evaluationContext, int batchSize, long idleTimeout) {
+
+		Assert.isTrue(partitions > 0, "'partitions' must be greater than 0");
+		Assert.isTrue(batchSize > 0, "'batchSize' must be greater than 0");
+		this.lanes = new Lane[partitions];
+		for (int i = 0; i < partitions; i++) {
+			this.lanes[i] = new Lane(i, batchSize);
+		}
+		this.partitionKeyExpression = partitionKeyExpression;
+		this.evaluationContext = evaluationContext;
+		this.batchSize = batchSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "jdbc:partitioned-batch-accumulator";
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		this.errorHandler.setBeanFactory(getBeanFactory());
+		if (this.idleTimeout > 0) {
+			long period = Math.max(1, this.idleTimeout / 2);
+			for (Lane lane : this.lanes) {
+				// On the lane's own thread: the idle flush never waits for the other lanes
+				lane.executor.scheduleWithFixedDelay(() -> flushIdle(lane), period, period, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		Lane lane = this.lanes[partition(message)];
+		Message<?> batch = null;
+		Future<?> written = null;
+		synchronized (lane) {
+			if (lane.payloads.isEmpty()) {
+				lane.headers = message.getHeaders();
+			}
+			lane.payloads.add(message.getPayload());
+			lane.lastAppend = System.currentTimeMillis();
+			if (lane.payloads.size() == this.batchSize) {
+				batch = release(lane);
+				Message<?> toWrite = batch;
+				// Submitted under the lock to keep the order of the lane batches; the lane queue is not bounded
+				// since each full batch has a producer waiting for it below
+				written = lane.executor.submit(() -> sendOutput(toWrite, null, false));
+			}
+		}
+		if (written != null) {
+			awaitWrite(batch, written);
+		}
+	}
+
+	private int partition(Message<?> message) {
+		if (this.partitionKeyExpression == null) {
+			return (this.roundRobin.getAndIncrement() & Integer.MAX_VALUE) % this.lanes.length;
+		}
+		Object key = this.partitionKeyExpression.getValue(this.evaluationContext, message);
+		int hash = key != null ? key.hashCode() : 0;
+		hash ^= (hash >>> 16);
+		return (hash & Integer.MAX_VALUE) % this.lanes.length;
+	}
+
+	private Message<?> release(Lane lane) {
+		Message<?> batch = new GenericMessage<>(lane.payloads, lane.headers);
+		lane.payloads = new ArrayList<>(this.batchSize);
+		lane.headers = null;
+		return batch;
+	}
+
+	private static void awaitWrite(Message<?> batch, Future<?> written) {
+		try {
+			written.get();
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			throw cause instanceof MessagingException
+					? (MessagingException) cause
+					: new MessagingException(batch, "Failed to write a partition batch", cause);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException(batch, "Interrupted while waiting for the partition lane", ex);
+		}
+	}
+
+	private void flushIdle(Lane lane) {
+		Message<?> batch = null;
+		synchronized (lane) {
+			if (!lane.payloads.isEmpty() && lane.lastAppend <= System.currentTimeMillis() - this.idleTimeout) {
+				batch = release(lane);
+			}
+		}
+		if (batch != null) {
+			// Already on the lane's thread, after all the batches handed off before this one
+			write(batch);
+		}
+	}
+
+	private void write(Message<?> batch) {
+		try {
+			sendOutput(batch, null, false);
+		}
+		catch (Exception ex) {
+			this.errorHandler.handleError(
+					ex instanceof MessagingException
+							? ex
+							: new MessagingException(batch, "Failed to write a partition batch", ex));
+		}
+	}
+
+	@Override
+	public void destroy() {
+		for (Lane lane : this.lanes) {
+			Message<?> batch = null;
+			synchronized (lane) {
+				if (!lane.payloads.isEmpty()) {
+					batch = release(lane);
+				}
+			}
+			if (batch != null) {
+				Message<?> toWrite = batch;
+				try {
+					lane.executor.execute(() -> write(toWrite));
+				}
+				catch (Exception ex) {
+					logger.error("Failed to flush pending batches on destroy", ex);
+				}
+			}
+			// Cancels the idle flush; the batches already handed off are still written
+			lane.executor.shutdown();
+		}
+		for (Lane lane : this.lanes) {
+			try {
+				if (!lane.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+					logger.error("Timed out waiting for the partition lane to write pending batches");
+				}
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static final class Lane {
+
+		private final ScheduledThreadPoolExecutor executor;
+
+		private List<Object> payloads;
+
+		private MessageHeaders headers;
+
+		private long lastAppend;
+
+		Lane(int index, int batchSize) {
+			this.payloads = new ArrayList<>(batchSize);
+			this.executor = new ScheduledThreadPoolExecutor(1,
+					new CustomizableThreadFactory("jdbc-consumer-partition-" + index + "-"));
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.springframework.integration.jdbc.SqlParameterSourceFactory;
+import org.springframework.integration.support.MutableMessage;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * A {@link SqlParameterSourceFactory} decorator which deals with {@code byte[]} payloads per row,
+ * so a batch is never copied into decoded payloads upfront.
+ * <p>
+ * JSON payloads are read by a {@link JsonColumnExtractor} when all the column expressions are plain
+ * property paths. Otherwise, textual payloads are decoded into a {@code String} with the charset
+ * from the {@code contentType} header, UTF-8 by default, and evaluated by the delegate.
+ */
+final class PayloadConvertingParameterFactory implements SqlParameterSourceFactory {
+
+	private final SqlParameterSourceFactory delegate;
+
+	private final String[] columns;
+
+	private final JsonColumnExtractor jsonColumnExtractor;
+
+	private volatile int[] sqlTypes;
+
+	PayloadConvertingParameterFactory(SqlParameterSourceFactory delegate, Map<String, String> columns,
+			boolean streamJson) {
+
+		this.delegate = delegate;
+		this.columns = columns.keySet().toArray(new String[0]);
+		this.jsonColumnExtractor = streamJson ? JsonColumnExtractor.of(columns) : null;
+	}
+
+	/**
+	 * Set the {@link java.sql.Types} to bind the column values with instead of
+	 * letting the driver coerce them, e.g. numbers into a {@code VARCHAR}.
+	 * @param sqlTypes the types ordered as the columns map;
+	 * {@link org.springframework.jdbc.core.SqlTypeValue#TYPE_UNKNOWN} to bind by the value type.
+	 */
+	void setSqlTypes(int[] sqlTypes) {
+		this.sqlTypes = sqlTypes;
+	}
+
+	/**
+	 * @return the types to bind the column values with; {@code null} if not set.
+	 */
+	int[] getSqlTypes() {
+		return this.sqlTypes;
+	}
+
+	@Override
+	public SqlParameterSource createParameterSource(Object o) {
+		SqlParameterSource parameterSource = parameterSource(o);
+		int[] types = this.sqlTypes;
+		if (types != null && parameterSource instanceof MapSqlParameterSource) {
+			for (int i = 0; i < this.columns.length; i++) {
+				if (types[i] != SqlTypeValue.TYPE_UNKNOWN) {
+					((MapSqlParameterSource) parameterSource).registerSqlType(this.columns[i], types[i]);
+				}
+			}
+		}
+		return parameterSource;
+	}
+
+	private SqlParameterSource parameterSource(Object o) {
+		if (!(o instanceof Message)) {
+			throw new IllegalArgumentException("Unable to handle type " + o.getClass().getName());
+		}
+		Message<?> message = (Message<?>) o;
+		if (message.getPayload() instanceof byte[]) {
+			String contentType = contentType(message.getHeaders());
+			if (this.jsonColumnExtractor != null && contentType.contains("json")) {
+				Object[] values = extract((byte[]) message.getPayload(), contentType);
+				MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+				for (int i = 0; i < this.columns.length; i++) {
+					parameterSource.addValue(this.columns[i], values[i]);
+				}
+				return parameterSource;
+			}
+			message = convert(message, contentType);
+		}
+		return this.delegate.createParameterSource(message);
+	}
+
+	/**
+	 * Evaluate all the columns for the message into an array ordered as the columns map.
+	 * @param message the message to evaluate columns against.
+	 * @return the column values.
+	 */
+	Object[] values(Message<?> message) {
+		Message<?> messageToUse = message;
+		if (message.getPayload() instanceof byte[]) {
+			String contentType = contentType(message.getHeaders());
+			if (this.jsonColumnExtractor != null && contentType.contains("json")) {
+				return extract((byte[]) message.getPayload(), contentType);
+			}
+			messageToUse = convert(message, contentType);
+		}
+		if (this.delegate instanceof CompiledParameterFactory) {
+			return ((CompiledParameterFactory) this.delegate).values(messageToUse);
+		}
+		SqlParameterSource parameterSource = this.delegate.createParameterSource(messageToUse);
+		Object[] values = new Object[this.columns.length];
+		for (int i = 0; i < this.columns.length; i++) {
+			values[i] = parameterSource.getValue(this.columns[i]);
+		}
+		return values;
+	}
+
+	private Object[] extract(byte[] payload, String contentType) {
+		return this.jsonColumnExtractor.values(payload, charset(contentType));
+	}
+
+	private static Message<?> convert(Message<?> message, String contentType) {
+		if (contentType.contains("text") || contentType.contains("json") || contentType.contains("x-spring-tuple")) {
+			return new MutableMessage<>(new String((byte[]) message.getPayload(), charset(contentType)),
+					message.getHeaders());
+		}
+		return message;
+	}
+
+	private static String contentType(MessageHeaders headers) {
+		return headers.containsKey(MessageHeaders.CONTENT_TYPE)
+				? headers.get(MessageHeaders.CONTENT_TYPE).toString()
+				: MimeTypeUtils.APPLICATION_JSON_VALUE;
+	}
+
+	private static Charset charset(String contentType) {
+		if (!contentType.contains("charset")) {
+			return StandardCharsets.UTF_8;
+		}
+		Charset charset = MimeTypeUtils.parseMimeType(contentType).getCharset();
+		return charset != null ? charset : StandardCharsets.UTF_8;
+	}
+
+}
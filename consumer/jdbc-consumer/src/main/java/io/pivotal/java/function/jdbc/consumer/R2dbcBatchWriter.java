@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.messaging.Message;
+
+/**
+ * Writes a batch of messages into the table through R2DBC: all the rows are bound into a single
+ * {@link Statement} (one binding per row via {@link Statement#add()}) and committed in one transaction.
+ * No thread is blocked while the statement is in flight.
+ */
+final class R2dbcBatchWriter {
+
+	private final ConnectionFactory connectionFactory;
+
+	private final String sql;
+
+	private final PayloadConvertingParameterFactory parameterSourceFactory;
+
+	/**
+	 * The last non-null value type per column, since R2DBC requires a type to bind {@code null}.
+	 */
+	private final AtomicReferenceArray<Class<?>> nullTypes;
+
+	R2dbcBatchWriter(ConnectionFactory connectionFactory, InsertStatement insertStatement,
+			PayloadConvertingParameterFactory parameterSourceFactory) {
+
+		this.connectionFactory = connectionFactory;
+		this.sql = insertStatement.sql();
+		this.parameterSourceFactory = parameterSourceFactory;
+		this.nullTypes = new AtomicReferenceArray<>(insertStatement.getColumns().size());
+	}
+
+	Mono<Void> write(List<Message<?>> messages) {
+		List<Object[]> rows = new ArrayList<>(messages.size());
+		for (Message<?> message : messages) {
+			rows.add(this.parameterSourceFactory.values(message));
+		}
+		return Mono.usingWhen(this.connectionFactory.create(),
+				connection ->
+						Mono.from(connection.beginTransaction())
+								.thenMany(execute(connection, rows))
+								.then(Mono.from(connection.commitTransaction()))
+								.onErrorResume(ex ->
+										Mono.from(connection.rollbackTransaction())
+												.then(Mono.error(ex))),
+				Connection::close);
+	}
+
+	private Flux<Integer> execute(Connection connection, List<Object[]> rows) {
+		Statement statement = connection.createStatement(this.sql);
+		for (int i = 0; i < rows.size(); i++) {
+			if (i > 0) {
+				statement.add();
+			}
+			Object[] row = rows.get(i);
+			for (int column = 0; column < row.length; column++) {
+				Object value = row[column];
+				if (value == null) {
+					Class<?> nullType = this.nullTypes.get(column);
+					statement.bindNull(column, nullType != null ? nullType : String.class);
+				}
+				else {
+					if (this.nullTypes.get(column) != value.getClass()) {
+						this.nullTypes.set(column, value.getClass());
+					}
+					statement.bind(column, value);
+				}
+			}
+		}
+		return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+	}
+
+	/**
+	 * Resolve the bind markers syntax for the database.
+	 * @param databaseName the {@link io.r2dbc.spi.ConnectionFactoryMetadata#getName()}.
+	 * @return the function from a zero-based column index to its bind marker.
+	 */
+	static IntFunction<String> bindMarkers(String databaseName) {
+		if (databaseName.startsWith("PostgreSQL") || databaseName.startsWith("H2")) {
+			return index -> "$" + (index + 1);
+		}
+		else if (databaseName.contains("SQL Server")) {
+			return index -> "@P" + index;
+		}
+		else {
+			return index -> "?";
+		}
+	}
+
+}
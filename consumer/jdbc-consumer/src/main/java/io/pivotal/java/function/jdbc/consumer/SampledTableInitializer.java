@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.messaging.Message;
+
+/**
+ * Drops and creates the table on the first write, with the column types inferred from
+ * (up to the sample size) rows of the first written message or group,
+ * and makes the {@link PayloadConvertingParameterFactory} bind values with these types.
+ * The sample size is validated on startup not to exceed the batch size.
+ */
+final class SampledTableInitializer {
+
+	private static final Log logger = LogFactory.getLog(SampledTableInitializer.class);
+
+	private final DataSource dataSource;
+
+	private final String tableName;
+
+	private final Collection<String> columns;
+
+	private final Map<String, String> declaredTypes;
+
+	private final int sampleSize;
+
+	private final PayloadConvertingParameterFactory parameterSourceFactory;
+
+	private volatile boolean initialized;
+
+	SampledTableInitializer(DataSource dataSource, String tableName, Collection<String> columns,
+			Map<String, String> declaredTypes, int sampleSize,
+			PayloadConvertingParameterFactory parameterSourceFactory) {
+
+		this.dataSource = dataSource;
+		this.tableName = tableName;
+		this.columns = columns;
+		this.declaredTypes = declaredTypes;
+		this.sampleSize = sampleSize;
+		this.parameterSourceFactory = parameterSourceFactory;
+	}
+
+	void initialize(Message<?> message) {
+		if (!this.initialized) {
+			synchronized (this) {
+				if (!this.initialized) {
+					List<Message<?>> rowMessages = JdbcBatchWriter.rowMessages(message);
+					int sampleCount = Math.min(this.sampleSize, rowMessages.size());
+					List<Object[]> samples = new ArrayList<>(sampleCount);
+					for (Message<?> rowMessage : rowMessages.subList(0, sampleCount)) {
+						samples.add(this.parameterSourceFactory.values(rowMessage));
+					}
+					ColumnTypes columnTypes = ColumnTypes.inferred(this.columns, this.declaredTypes, samples);
+					ResourceDatabasePopulator databasePopulator = new ResourceDatabasePopulator(
+							new DefaultInitializationScriptResource(this.tableName, columnTypes.getDdlTypes()));
+					databasePopulator.setIgnoreFailedDrops(true);
+					DatabasePopulatorUtils.execute(databasePopulator, this.dataSource);
+					this.parameterSourceFactory.setSqlTypes(columnTypes.getSqlTypes());
+					this.initialized = true;
+					if (logger.isInfoEnabled()) {
+						logger.info("Created table '" + this.tableName + "' with the column types "
+								+ columnTypes.getDdlTypes() + " inferred from " + samples.size() + " rows");
+					}
+				}
+			}
+		}
+	}
+
+}
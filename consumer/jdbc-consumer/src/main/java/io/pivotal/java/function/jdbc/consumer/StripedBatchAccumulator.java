@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.util.Assert;
+
+/**
+ * A lock-free alternative to an aggregator with a {@code MessageCountReleaseStrategy}
+ * and an idle group timeout.
+ * <p>
+ * Payloads are accumulated into one of the striped buffers selected by the producer thread,
+ * so producers only compete (via CAS) with threads mapped to the same stripe.
+ * A buffer is released as a {@code List} payload (a view over the buffer, no copying)
+ * with the headers of its first message when it is full or when no messages have been added
+ * to it for the idle timeout.
+ * Unlike an aggregator, messages are not correlated: all payloads share the same buffers.
+ */
+class StripedBatchAccumulator extends AbstractMessageProducingHandler implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(StripedBatchAccumulator.class);
+
+	private final AtomicReference<Batch>[] stripes;
+
+	private final int batchSize;
+
+	private final long idleTimeout;
+
+	private volatile ScheduledFuture<?> idleFlushTask;
+
+	@SuppressWarnings("unchecked")
+	StripedBatchAccumulator(int stripes, int batchSize, long idleTimeout) {
+		Assert.isTrue(stripes > 0, "'stripes' must be greater than 0");
+		Assert.isTrue(batchSize > 0, "'batchSize' must be greater than 0");
+		this.stripes = new AtomicReference[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new AtomicReference<>(new Batch(batchSize));
+		}
+		this.batchSize = batchSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "jdbc:striped-batch-accumulator";
+	}
+
+	@Override
+	protected void onInit() {
+		super.onInit();
+		if (this.idleTimeout > 0) {
+			long period = Math.max(1, this.idleTimeout / 2);
+			this.idleFlushTask = getTaskScheduler().scheduleWithFixedDelay(this::flushIdle, period);
+		}
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message) {
+		AtomicReference<Batch> stripe = this.stripes[(int) (Thread.currentThread().getId() % this.stripes.length)];
+		while (true) {
+			Batch batch = stripe.get();
+			int slot = batch.claimed.getAndIncrement();
+			if (slot < this.batchSize) {
+				if (slot == 0) {
+					batch.headers = message.getHeaders();
+				}
+				batch.payloads[slot] = message.getPayload();
+				batch.lastAppend = System.currentTimeMillis();
+				if (batch.filled.incrementAndGet() == this.batchSize) {
+					stripe.compareAndSet(batch, new Batch(this.batchSize));
+					release(batch, this.batchSize);
+				}
+				return;
+			}
+			// The batch is full or sealed by the idle flush: make sure a fresh one is in place
+			if (stripe.get() == batch) {
+				stripe.compareAndSet(batch, new Batch(this.batchSize));
+			}
+		}
+	}
+
+	void flushIdle() {
+		flush(System.currentTimeMillis() - this.idleTimeout);
+	}
+
+	private void flush(long appendedBefore) {
+		for (AtomicReference<Batch> stripe : this.stripes) {
+			Batch batch = stripe.get();
+			if (batch.filled.get() > 0 && batch.lastAppend <= appendedBefore) {
+				// Seal the batch: all further claims are beyond its capacity
+				int claimed = batch.claimed.getAndAdd(this.batchSize);
+				if (claimed < this.batchSize) {
+					stripe.compareAndSet(batch, new Batch(this.batchSize));
+					while (batch.filled.get() < claimed) {
+						// Wait for producers which have claimed a slot before sealing
+						Thread.yield();
+					}
+					release(batch, claimed);
+				}
+			}
+		}
+	}
+
+	private void release(Batch batch, int size) {
+		List<Object> payloads = Arrays.asList(batch.payloads);
+		if (size < payloads.size()) {
+			payloads = payloads.subList(0, size);
+		}
+		sendOutput(new GenericMessage<>(payloads, batch.headers), null, false);
+	}
+
+	@Override
+	public void destroy() {
+		ScheduledFuture<?> task = this.idleFlushTask;
+		if (task != null) {
+			task.cancel(false);
+		}
+		try {
+			flush(Long.MAX_VALUE);
+		}
+		catch (Exception ex) {
+			logger.error("Failed to flush pending batches on destroy", ex);
+		}
+	}
+
+	private static final class Batch {
+
+		private final Object[] payloads;
+
+		private final AtomicInteger claimed = new AtomicInteger();
+
+		private final AtomicInteger filled = new AtomicInteger();
+
+		private volatile MessageHeaders headers;
+
+		private volatile long lastAppend;
+
+		Batch(int size) {
+			this.payloads = new Object[size];
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+/**
+ * Defines the supported SQL dialects for an upsert when {@code jdbc.consumer.key-columns} are provided.
+ */
+public enum UpsertDialect {
+
+	/**
+	 * Detect the dialect from the target database product name.
+	 * Databases other than PostgreSQL, MySQL/MariaDB and H2 are treated as {@link #merge}.
+	 */
+	auto,
+
+	/**
+	 * {@code INSERT ... ON CONFLICT (keys) DO UPDATE SET ...}.
+	 */
+	postgresql,
+
+	/**
+	 * {@code INSERT ... ON DUPLICATE KEY UPDATE ...}.
+	 */
+	mysql,
+
+	/**
+	 * {@code MERGE INTO table(columns) KEY(keys) VALUES ...}.
+	 */
+	h2,
+
+	/**
+	 * The standard {@code MERGE INTO table USING (VALUES ...) AS s(columns) ON ...}.
+	 */
+	merge;
+
+	static UpsertDialect fromDatabaseProductName(String productName) {
+		if (productName.startsWith("PostgreSQL")) {
+			return postgresql;
+		}
+		else if (productName.startsWith("MySQL") || productName.startsWith("MariaDB")) {
+			return mysql;
+		}
+		else if (productName.startsWith("H2")) {
+			return h2;
+		}
+		else {
+			return merge;
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+/**
+ * Defines the supported modes of writing messages into the target table.
+ */
+public enum WriteMode {
+
+	/**
+	 * Each message (or released group) is written by the {@code JdbcMessageHandler}.
+	 */
+	handler,
+
+	/**
+	 * Each released group is bound into a single JDBC batch and committed
+	 * in chunks of {@code jdbc.consumer.commit-size} rows.
+	 */
+	batch,
+
+	/**
+	 * Each released group is streamed into the table via the PostgreSQL {@code COPY FROM STDIN} protocol.
+	 * Falls back to {@link #batch} if the target database is not PostgreSQL.
+	 */
+	copy;
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.writeMode=batch",
+		"jdbc.consumer.failedRowsChannel=failedRows",
+		"jdbc.consumer.batchSize=10" })
+public class BatchFailureIsolationTests extends JdbcConsumerApplicationTests {
+
+	@Autowired
+	QueueChannel failedRows;
+
+	@Test
+	public void testPoisonRowIsIsolated() {
+		String tooLong = new String(new char[2001]).replace('\0', 'x');
+		for (int i = 0; i < 10; i++) {
+			jdbcConsumer.accept(MessageBuilder.withPayload(new Payload(i == 6 ? tooLong : "hello", i)).build());
+		}
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages", Integer.class)).isEqualTo(9);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, 6))
+				.isEqualTo(0);
+
+		Message<?> failed = this.failedRows.receive(10000);
+		assertThat(failed).isInstanceOf(ErrorMessage.class);
+		assertThat(failed.getPayload()).isInstanceOf(MessageHandlingException.class);
+		Message<?> failedMessage = ((MessageHandlingException) failed.getPayload()).getFailedMessage();
+		assertThat(failedMessage.getPayload()).isInstanceOf(Payload.class);
+		assertThat(((Payload) failedMessage.getPayload()).getB()).isEqualTo(6);
+		assertThat(this.failedRows.receive(0)).isNull();
+	}
+
+	@TestConfiguration
+	static class FailedRowsConfiguration {
+
+		@Bean
+		public QueueChannel failedRows() {
+			return new QueueChannel();
+		}
+
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.writeMode=batch",
+		"jdbc.consumer.batchSize=100",
+		"jdbc.consumer.commitSize=30" })
+public class BatchWriteModeTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testBatchWrite() {
+		final int numberOfInserts = 500;
+		for (int i = 0; i < numberOfInserts; i++) {
+			jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("hello", i)).build());
+		}
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages", Integer.class))
+				.isEqualTo(numberOfInserts);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, 499))
+				.isEqualTo(1);
+	}
+
+}
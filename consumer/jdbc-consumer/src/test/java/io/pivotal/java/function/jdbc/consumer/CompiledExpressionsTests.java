@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.compileExpressions=true" })
+public class CompiledExpressionsTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testInsertionWithChangingPayloadShape() {
+		for (int i = 0; i < 3; i++) {
+			jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("pojo", i)).build());
+		}
+		jdbcConsumer.accept(MessageBuilder.withPayload("{\"a\": \"json1\", \"b\": 42}").build());
+		jdbcConsumer.accept(MessageBuilder.withPayload("{\"a\": \"json2\"}").build());
+		jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("pojo", 3)).build());
+
+		assertThat(jdbcOperations.queryForObject(
+				"select count(*) from messages where a = ?", Integer.class, "pojo")).isEqualTo(4);
+		assertThat(jdbcOperations.queryForObject(
+				"select count(*) from messages where a = ? and b = ?", Integer.class, "pojo", 3)).isEqualTo(1);
+		assertThat(jdbcOperations.queryForObject(
+				"select count(*) from messages where a = ? and b = ?", Integer.class, "json1", 42)).isEqualTo(1);
+		assertThat(jdbcOperations.queryForObject(
+				"select count(*) from messages where a = ? and b IS NULL", Integer.class, "json2")).isEqualTo(1);
+	}
+
+}
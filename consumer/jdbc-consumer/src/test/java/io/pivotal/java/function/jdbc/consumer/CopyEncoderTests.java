@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class CopyEncoderTests {
+
+	@Test
+	public void testCsvEncoding() {
+		CopyEncoder encoder = new CopyEncoder();
+		encoder.encode(new Object[] { "a \"quoted\", text", 42, null, "", "é€😀",
+				new byte[] { 0x0a, (byte) 0xff } });
+		assertThat(encoded(encoder))
+				.isEqualTo("\"a \"\"quoted\"\", text\",42,,\"\",\"é€😀\",\\x0aff\n");
+		encoder.reset();
+		assertThat(encoder.size()).isZero();
+	}
+
+	@Test
+	public void testNumbersAndBooleans() {
+		CopyEncoder encoder = new CopyEncoder();
+		encoder.encode(new Object[] { 0, -7, (short) 123, (byte) -128, Long.MAX_VALUE, Long.MIN_VALUE,
+				true, false, 1.5d, new BigDecimal("-0.25") });
+		assertThat(encoded(encoder))
+				.isEqualTo("0,-7,123,-128,9223372036854775807,-9223372036854775808,true,false,1.5,-0.25\n");
+	}
+
+	@Test
+	public void testBufferGrows() {
+		CopyEncoder encoder = new CopyEncoder();
+		StringBuilder expected = new StringBuilder();
+		for (long i = 0; i < 1000; i++) {
+			encoder.encode(new Object[] { i * 1_000_000_007L, "row" });
+			expected.append(i * 1_000_000_007L).append(",\"row\"\n");
+		}
+		assertThat(encoded(encoder)).isEqualTo(expected.toString());
+	}
+
+	private static String encoded(CopyEncoder encoder) {
+		return new String(encoder.buffer(), 0, encoder.size(), StandardCharsets.UTF_8);
+	}
+
+}
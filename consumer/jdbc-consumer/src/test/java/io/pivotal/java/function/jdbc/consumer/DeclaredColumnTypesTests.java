@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.tableName=declared_types",
+		"jdbc.consumer.initialize=true",
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.columnTypes=b:INTEGER" })
+public class DeclaredColumnTypesTests extends JdbcConsumerApplicationTests {
+
+	@AfterEach
+	public void dropTable() {
+		jdbcOperations.execute("DROP TABLE DECLARED_TYPES IF EXISTS");
+	}
+
+	@Test
+	public void testDeclaredTypes() {
+		jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("hello", 42)).build());
+		jdbcConsumer.accept(MessageBuilder.withPayload("{\"a\": \"world\", \"b\": 43}".getBytes(StandardCharsets.UTF_8))
+				.build());
+
+		assertThat(columnType("A")).isEqualTo(Types.VARCHAR);
+		assertThat(columnType("B")).isEqualTo(Types.INTEGER);
+		assertThat(jdbcOperations.queryForObject("select sum(b) from declared_types", Integer.class)).isEqualTo(85);
+	}
+
+	private Integer columnType(String column) {
+		return jdbcOperations.queryForObject("select data_type from information_schema.columns "
+				+ "where table_name = 'DECLARED_TYPES' and column_name = ?", Integer.class, column);
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.tableName=inferred_types",
+		"jdbc.consumer.initialize=true",
+		"jdbc.consumer.columns=a,b,c,d,e",
+		"jdbc.consumer.columnTypes=e:BIGINT",
+		"jdbc.consumer.typeSamples=3",
+		"jdbc.consumer.writeMode=batch",
+		"jdbc.consumer.batchSize=4" })
+public class InferredColumnTypesTests extends JdbcConsumerApplicationTests {
+
+	@AfterEach
+	public void dropTable() {
+		jdbcOperations.execute("DROP TABLE INFERRED_TYPES IF EXISTS");
+	}
+
+	@Test
+	public void testTypesInferredFromFirstBatch() {
+		for (int i = 0; i < 4; i++) {
+			String json = "{\"a\": \"text" + i + "\", \"b\": " + i + ", \"c\": " + i + ".5, \"d\": " + (i % 2 == 0)
+					+ ", \"e\": " + i + "}";
+			jdbcConsumer.accept(MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8)).build());
+		}
+
+		assertThat(columnType("A")).isEqualTo(Types.VARCHAR);
+		assertThat(columnType("B")).isEqualTo(Types.INTEGER);
+		assertThat(columnType("C")).isEqualTo(Types.DOUBLE);
+		assertThat(columnType("D")).isEqualTo(Types.BOOLEAN);
+		assertThat(columnType("E")).isEqualTo(Types.BIGINT);
+		assertThat(jdbcOperations.queryForObject("select count(*) from inferred_types where d", Integer.class))
+				.isEqualTo(2);
+	}
+
+	@Test
+	public void testMoreTypeSamplesThanBatchSizeAreRejected() {
+		SpringApplicationBuilder application =
+				new SpringApplicationBuilder(TestApplication.class)
+						.web(WebApplicationType.NONE)
+						.properties("spring.datasource.generate-unique-name=true",
+								"jdbc.consumer.initialize=true",
+								"jdbc.consumer.columns=a,b",
+								"jdbc.consumer.typeSamples=5");
+		assertThatThrownBy(application::run)
+				.hasStackTraceContaining("'jdbc.consumer.type-samples' (5) must not be greater than");
+	}
+
+	@Test
+	public void testWidening() {
+		ColumnTypes columnTypes = ColumnTypes.inferred(Arrays.asList("a", "b", "c"), Collections.emptyMap(),
+				Arrays.asList(new Object[] { 1, null, "x" }, new Object[] { 2L, null, 3 }));
+		assertThat(columnTypes.getDdlTypes())
+				.containsEntry("a", "BIGINT")
+				.containsEntry("b", ColumnTypes.DEFAULT_DDL_TYPE)
+				.containsEntry("c", ColumnTypes.DEFAULT_DDL_TYPE);
+		assertThat(ColumnTypes.sqlType("DECIMAL(10,2)")).isEqualTo(Types.DECIMAL);
+		assertThat(ColumnTypes.sqlType("double precision")).isEqualTo(Types.DOUBLE);
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "jdbc.consumer.columns=a,b:nested.c")
+public class JsonByteArrayStreamingTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testColumnsAreStreamedFromByteArray() {
+		String json = "{\"skipped\": [1, {\"a\": \"no\"}], \"a\": \"héllo\", \"nested\": {\"c\": 42}, \"tail\": {}}";
+		jdbcConsumer.accept(MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8)).build());
+		jdbcConsumer.accept(MessageBuilder.withPayload(json.replace("42", "43").getBytes(StandardCharsets.UTF_16))
+				.setHeader(MessageHeaders.CONTENT_TYPE, "application/json;charset=UTF-16")
+				.build());
+
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where a = ?", Integer.class,
+				"héllo")).isEqualTo(2);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, "42"))
+				.isEqualTo(1);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, "43"))
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void testExtractorOnlyForPropertyPaths() {
+		ShorthandMapConverter converter = new ShorthandMapConverter();
+		assertThat(JsonColumnExtractor.of(converter.convert("a,b:payload.b.c"))).isNotNull();
+		assertThat(JsonColumnExtractor.of(converter.convert("a,b:headers.b"))).isNull();
+		assertThat(JsonColumnExtractor.of(converter.convert("a,b:payload.b.toUpperCase()"))).isNull();
+
+		Map<String, String> columns = converter.convert("a,b:b.c,c:b");
+		Object[] values = JsonColumnExtractor.of(columns)
+				.values("{\"b\": {\"c\": true}, \"a\": 1.5}".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+		assertThat(values).containsExactly(1.5, true, null);
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.jdbc.SqlParameterSourceFactory;
+import org.springframework.integration.json.JsonPropertyAccessor;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.messaging.Message;
+
+/**
+ * Compares the default {@code ParameterFactory} with the {@link CompiledParameterFactory}
+ * and, for {@code byte[]} payloads, with the {@link JsonColumnExtractor}.
+ * Not a part of the test suite: run it via the {@link #main(String[])} method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParameterFactoryBenchmark {
+
+	@Param({ "pojo", "json", "bytes" })
+	public String payloadType;
+
+	private SqlParameterSourceFactory parameterFactory;
+
+	private SqlParameterSourceFactory compiledParameterFactory;
+
+	private SqlParameterSourceFactory streamingParameterFactory;
+
+	private Message<?> message;
+
+	@Setup
+	public void setup() {
+		StandardEvaluationContext evaluationContext = ExpressionUtils.createStandardEvaluationContext();
+		evaluationContext.addPropertyAccessor(new JsonPropertyAccessor());
+		Map<String, String> columns = new ShorthandMapConverter().convert("a,b");
+		SpelExpressionParser parser = new SpelExpressionParser();
+		SpelExpressionParser compilingParser =
+				new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.IMMEDIATE, null));
+
+		this.parameterFactory = new PayloadConvertingParameterFactory(
+				new JdbcConsumerConfiguration.ParameterFactory(
+						JdbcConsumerConfiguration.columnExpressionVariations(columns, parser), evaluationContext),
+				columns, false);
+		CompiledParameterFactory compiledParameterFactory =
+				new CompiledParameterFactory(JdbcConsumerConfiguration.columnExpressionVariations(columns, parser),
+						JdbcConsumerConfiguration.columnExpressionVariations(columns, compilingParser),
+						evaluationContext);
+		this.compiledParameterFactory = new PayloadConvertingParameterFactory(compiledParameterFactory, columns, false);
+		this.streamingParameterFactory = new PayloadConvertingParameterFactory(compiledParameterFactory, columns, true);
+
+		String json = "{\"a\": \"hello\", \"b\": 42}";
+		if ("json".equals(this.payloadType)) {
+			this.message = MessageBuilder.withPayload(json).build();
+		}
+		else if ("bytes".equals(this.payloadType)) {
+			this.message = MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8)).build();
+		}
+		else {
+			this.message = MessageBuilder.withPayload(new JdbcConsumerApplicationTests.Payload("hello", 42)).build();
+		}
+	}
+
+	@Benchmark
+	public SqlParameterSource parameterFactory() {
+		return this.parameterFactory.createParameterSource(this.message);
+	}
+
+	@Benchmark
+	public SqlParameterSource compiledParameterFactory() {
+		return this.compiledParameterFactory.createParameterSource(this.message);
+	}
+
+	@Benchmark
+	public SqlParameterSource streamingParameterFactory() {
+		return this.streamingParameterFactory.createParameterSource(this.message);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(ParameterFactoryBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build())
+				.run();
+	}
+
+}
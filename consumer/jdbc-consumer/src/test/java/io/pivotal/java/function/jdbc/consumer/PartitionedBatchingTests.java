@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.keyColumns=a",
+		"jdbc.consumer.writeMode=batch",
+		"jdbc.consumer.batching=partitioned",
+		"jdbc.consumer.partitions=4",
+		"jdbc.consumer.partitionKeyExpression=payload.a",
+		"jdbc.consumer.batchSize=7",
+		"jdbc.consumer.idleTimeout=100" })
+public class PartitionedBatchingTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testLatestValuePerKeyIsWritten() {
+		final int numberOfKeys = 10;
+		final int updatesPerKey = 100;
+		for (int i = 0; i < updatesPerKey; i++) {
+			for (int key = 0; key < numberOfKeys; key++) {
+				jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("key" + key, i)).build());
+			}
+		}
+
+		String last = String.valueOf(updatesPerKey - 1);
+		Awaitility.await().until(() -> jdbcOperations
+						.queryForObject("select count(*) from messages where b = ?", Integer.class, last),
+				value -> value == numberOfKeys);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages", Integer.class))
+				.isEqualTo(numberOfKeys);
+	}
+
+	@Test
+	public void testFailedBatchWriteIsThrownToProducer() {
+		DirectChannel output = new DirectChannel();
+		output.subscribe(message -> {
+			throw new IllegalStateException("write failed");
+		});
+		PartitionedBatchAccumulator accumulator = new PartitionedBatchAccumulator(1, null, null, 2, -1);
+		accumulator.setOutputChannel(output);
+		try {
+			accumulator.handleMessage(new GenericMessage<>("a"));
+			assertThatThrownBy(() -> accumulator.handleMessage(new GenericMessage<>("b")))
+					.isInstanceOf(MessagingException.class)
+					.hasRootCauseInstanceOf(IllegalStateException.class);
+		}
+		finally {
+			accumulator.destroy();
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.GenericMessage;
+
+public class R2dbcBatchingTests {
+
+	@Test
+	public void testSlowWritesBoundUpstreamDemand() {
+		AtomicLong requested = new AtomicLong();
+		AtomicLong written = new AtomicLong();
+		AtomicLong maxOutstanding = new AtomicLong();
+		Function<Flux<Message<?>>, Mono<Void>> consumer =
+				JdbcConsumerConfiguration.R2dbcConsumerConfiguration.batchingConsumer(
+						batch -> Mono.delay(Duration.ofMillis(10))
+								.doOnNext(tick -> written.addAndGet(batch.size()))
+								.then(),
+						10, 50, 2);
+
+		Flux<Message<?>> messages =
+				Flux.range(0, 500)
+						.<Message<?>>map(GenericMessage::new)
+						.doOnRequest(n -> {
+							assertThat(n).isLessThan(Long.MAX_VALUE);
+							long outstanding = requested.addAndGet(n) - written.get();
+							maxOutstanding.accumulateAndGet(outstanding, Math::max);
+						});
+
+		consumer.apply(messages).block(Duration.ofSeconds(30));
+
+		assertThat(written.get()).isEqualTo(500);
+		// The merge prefetch, the batches being written and the one being collected
+		assertThat(maxOutstanding.get()).isLessThanOrEqualTo(32 + 2 * 10 + 10);
+	}
+
+	@Test
+	public void testPartialBatchIsWrittenAfterIdleTimeout() throws InterruptedException {
+		BlockingQueue<List<Message<?>>> batches = new LinkedBlockingQueue<>();
+		Function<Flux<Message<?>>, Mono<Void>> consumer =
+				JdbcConsumerConfiguration.R2dbcConsumerConfiguration.batchingConsumer(
+						batch -> Mono.fromRunnable(() -> batches.add(batch)), 10, 100, 2);
+
+		Flux<Message<?>> messages =
+				Flux.range(0, 13)
+						.<Message<?>>map(GenericMessage::new)
+						.concatWith(Flux.never());
+		Disposable subscription = consumer.apply(messages).subscribe();
+		try {
+			assertThat(batches.poll(10, TimeUnit.SECONDS)).hasSize(10);
+			List<Message<?>> partial = batches.poll(10, TimeUnit.SECONDS);
+			assertThat(partial).hasSize(3);
+			assertThat(partial.get(2).getPayload()).isEqualTo(12);
+		}
+		finally {
+			subscription.dispose();
+		}
+	}
+
+}
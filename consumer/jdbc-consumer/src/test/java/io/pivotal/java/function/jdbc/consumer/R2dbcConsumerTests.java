@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.function.Function;
+
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.messaging.Message;
+import org.springframework.test.annotation.DirtiesContext;
+
+@SpringBootTest(properties = {
+		"jdbc.consumer.reactive=true",
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.batchSize=10",
+		"jdbc.consumer.idleTimeout=100",
+		"jdbc.consumer.maxInFlight=2" })
+@DirtiesContext
+public class R2dbcConsumerTests {
+
+	@Autowired
+	Function<Flux<Message<?>>, Mono<Void>> r2dbcConsumer;
+
+	@Autowired
+	JdbcOperations jdbcOperations;
+
+	@AfterEach
+	public void cleanup() {
+		jdbcOperations.execute("DROP TABLE MESSAGES IF EXISTS");
+	}
+
+	@Test
+	public void testReactiveInsert() {
+		Flux<Message<?>> messages =
+				Flux.range(0, 95)
+						.<Message<?>>map(i ->
+								i % 2 == 0
+										? MessageBuilder.withPayload(new JdbcConsumerApplicationTests.Payload("hello", i))
+										.build()
+										: MessageBuilder.withPayload(("{\"a\": \"hello\", \"b\": " + i + "}")
+										.getBytes(StandardCharsets.UTF_8))
+										.build());
+
+		this.r2dbcConsumer.apply(messages).block(Duration.ofSeconds(30));
+
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages", Integer.class)).isEqualTo(95);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, "94"))
+				.isEqualTo(1);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, "93"))
+				.isEqualTo(1);
+	}
+
+	@TestConfiguration
+	static class R2dbcConfiguration {
+
+		/**
+		 * The same in-memory database as the one of the auto-configured {@code DataSource}.
+		 */
+		@Bean
+		public ConnectionFactory connectionFactory() {
+			return H2ConnectionFactory.inMemory("testdb");
+		}
+
+	}
+
+}
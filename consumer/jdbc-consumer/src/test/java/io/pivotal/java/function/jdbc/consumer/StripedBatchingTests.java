@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.batching=striped",
+		"jdbc.consumer.batchStripes=4",
+		"jdbc.consumer.batchSize=100",
+		"jdbc.consumer.idleTimeout=100" })
+public class StripedBatchingTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testConcurrentBatchInsertion() throws InterruptedException {
+		final int numberOfThreads = 8;
+		final int insertsPerThread = 275;
+		ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+		for (int i = 0; i < numberOfThreads; i++) {
+			executorService.execute(() -> {
+				for (int j = 0; j < insertsPerThread; j++) {
+					jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("hello", j)).build());
+				}
+			});
+		}
+		executorService.shutdown();
+		assertThat(executorService.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		Awaitility.await().until(() -> jdbcOperations
+						.queryForObject("select count(*) from messages", Integer.class),
+				value -> value == numberOfThreads * insertsPerThread);
+	}
+
+}
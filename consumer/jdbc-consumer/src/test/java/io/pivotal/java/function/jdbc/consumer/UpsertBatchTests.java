@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.keyColumns=a",
+		"jdbc.consumer.writeMode=batch",
+		"jdbc.consumer.rewriteBatchedInserts=true",
+		"jdbc.consumer.batchSize=10" })
+public class UpsertBatchTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testRedeliveredBatchIsUpserted() {
+		for (int redelivery = 0; redelivery < 3; redelivery++) {
+			for (int i = 0; i < 10; i++) {
+				jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("key" + (i % 5), redelivery)).build());
+			}
+		}
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages", Integer.class)).isEqualTo(5);
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages where b = ?", Integer.class, 2))
+				.isEqualTo(5);
+	}
+
+}
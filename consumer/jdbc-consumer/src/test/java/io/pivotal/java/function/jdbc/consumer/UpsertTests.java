@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.java.function.jdbc.consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+		"jdbc.consumer.columns=a,b",
+		"jdbc.consumer.keyColumns=a" })
+public class UpsertTests extends JdbcConsumerApplicationTests {
+
+	@Test
+	public void testUpsert() {
+		jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("hello", 1)).build());
+		jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("world", 1)).build());
+		jdbcConsumer.accept(MessageBuilder.withPayload(new Payload("hello", 2)).build());
+
+		assertThat(jdbcOperations.queryForObject("select count(*) from messages", Integer.class)).isEqualTo(2);
+		assertThat(jdbcOperations.queryForObject("select b from messages where a = ?", Integer.class, "hello"))
+				.isEqualTo(2);
+	}
+
+	@Test
+	public void testDialects() {
+		assertThat(InsertStatement.of("t", Arrays.asList("a", "b"), Collections.singletonList("a"),
+				UpsertDialect.postgresql, false).sql(2))
+				.isEqualTo("INSERT INTO t(a, b) VALUES (?, ?), (?, ?) ON CONFLICT (a) DO UPDATE SET b = EXCLUDED.b");
+		assertThat(InsertStatement.of("t", Arrays.asList("a", "b"), Collections.singletonList("a"),
+				UpsertDialect.mysql, false).sql())
+				.isEqualTo("INSERT INTO t(a, b) VALUES (?, ?) ON DUPLICATE KEY UPDATE b = VALUES(b)");
+		assertThat(InsertStatement.of("t", Arrays.asList("a", "b"), Collections.singletonList("a"),
+				UpsertDialect.h2, true).sql())
+				.isEqualTo("MERGE INTO t(a, b) KEY(a) VALUES (:a, :b)");
+		assertThat(InsertStatement.of("t", Arrays.asList("a", "b"), Collections.singletonList("a"),
+				UpsertDialect.merge, false).sql())
+				.isEqualTo("MERGE INTO t USING (VALUES (?, ?)) AS s(a, b) ON (t.a = s.a) " +
+						"WHEN MATCHED THEN UPDATE SET b = s.b WHEN NOT MATCHED THEN INSERT (a, b) VALUES (s.a, s.b)");
+	}
+
+}